@@ -0,0 +1,156 @@
+package org.example.ratelimiter;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decision cost of every {@link LimiterType} under load.
+ * <p>
+ * Parameters:
+ * <ul>
+ *   <li>{@code type} - the limiter, built through {@link RateLimiterFactory}</li>
+ *   <li>{@code keys} - key cardinality, from one hot key to 10M keys (give the fork a
+ *       large heap for the upper end, e.g. {@code -jvmArgs -Xmx8g})</li>
+ *   <li>{@code zipf} - skew of the key distribution; 0 is uniform, ~1 is typical web traffic</li>
+ *   <li>{@code limit} - permits per key per second; a low limit makes hot keys mostly
+ *       denied, a high one makes everything allowed. The {@code allowed}/{@code denied}
+ *       counters in the throughput results show the ratio actually reached.</li>
+ * </ul>
+ * {@link #throughput} reports ops/s, {@link #latency} reports sampled latency percentiles.
+ * Both include drawing the key; {@link #keySampling} measures that on its own.
+ * Thread count is a JMH option rather than a parameter; {@link #main} runs the whole
+ * matrix once per thread count with the GC profiler attached:
+ * <pre>
+ *   mvn -P benchmarks package
+ *   java -cp target/benchmarks.jar org.example.ratelimiter.RateLimiterBenchmark 1 4 16
+ *   java -jar target/benchmarks.jar RateLimiterBenchmark -t 8 -p type=TOKEN_BUCKET -prof gc
+ * </pre>
+ */
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RateLimiterBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class LimiterState {
+        @Param({"FIXED_WINDOW", "FIXED_WINDOW_EPOCH", "SLIDING_LOG", "SLIDING_WINDOW_COUNTER", "SLIDING_WINDOW_SKETCH",
+                "TOKEN_BUCKET", "TOKEN_BUCKET_LOCK_FREE", "LEAKY_BUCKET_QUEUE", "LEAKY_BUCKET_TIMESTAMP"})
+        LimiterType type;
+
+        @Param({"1", "1000", "1000000", "10000000"})
+        int keys;
+
+        @Param({"0", "0.99", "1.2"})
+        double zipf;
+
+        @Param({"10", "1000000"})
+        long limit;
+
+        RateLimiter limiter;
+        String[] keyNames;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            limiter = LoadHarness.create(type, limit);
+            keyNames = new String[keys];
+            for (int i = 0; i < keys; i++) {
+                keyNames[i] = "user-" + i;
+            }
+        }
+    }
+
+    /**
+     * Draws every key on the fly. A pre-sampled ring would be cheaper per call but would
+     * cap the distinct keys a thread touches at the ring size, hiding exactly the map
+     * size and cache-miss effects the upper {@code keys} values are there to measure.
+     * {@link #keySampling} reports what the draw itself costs.
+     */
+    @State(Scope.Thread)
+    public static class KeyStream {
+        ZipfSampler sampler;
+
+        @Setup(Level.Trial)
+        public void setUp(LimiterState limiterState, ThreadParams threadParams) {
+            sampler = new ZipfSampler(limiterState.keys, limiterState.zipf, 42 + threadParams.getThreadIndex());
+        }
+
+        String next(String[] keyNames) {
+            return keyNames[sampler.nextRank()];
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Decisions {
+        public long allowed;
+        public long denied;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public boolean throughput(LimiterState limiterState, KeyStream keyStream, Decisions decisions) {
+        boolean allowed = limiterState.limiter.allowRequest(keyStream.next(limiterState.keyNames));
+        if (allowed) {
+            decisions.allowed++;
+        } else {
+            decisions.denied++;
+        }
+        return allowed;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean latency(LimiterState limiterState, KeyStream keyStream) {
+        return limiterState.limiter.allowRequest(keyStream.next(limiterState.keyNames));
+    }
+
+    /**
+     * Key selection alone, to subtract from the other two.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public String keySampling(LimiterState limiterState, KeyStream keyStream) {
+        return keyStream.next(limiterState.keyNames);
+    }
+
+    /**
+     * Runs the full matrix once per thread count given on the command line (default 1, 4
+     * and all cores), with the GC profiler for allocation rates.
+     */
+    public static void main(String[] args) throws RunnerException {
+        int[] threadCounts = args.length == 0
+                ? new int[]{1, 4, Runtime.getRuntime().availableProcessors()}
+                : Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+
+        for (int threads : threadCounts) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(RateLimiterBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class);
+            new Runner(options.build()).run();
+        }
+    }
+}
@@ -1,17 +1,89 @@
 package org.example;
 
-//TIP To <b>Run</b> code, press <shortcut actionId="Run"/> or
-// click the <icon src="AllIcons.Actions.Execute"/> icon in the gutter.
+import org.example.ratelimiter.BinaryDecisionServer;
+import org.example.ratelimiter.HttpDecisionServer;
+import org.example.ratelimiter.LimiterType;
+import org.example.ratelimiter.RateLimiter;
+import org.example.ratelimiter.RateLimiterFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ * Rate-limit decision sidecar: one limiter, served over HTTP and over the batched binary
+ * protocol of {@link BinaryDecisionServer}.
+ * <pre>
+ *   java org.example.Main [--type TOKEN_BUCKET] [--param1 100] [--param2 100]
+ *                         [--bind 127.0.0.1] [--http-port 8080] [--binary-port 9090]
+ * </pre>
+ * {@code --param1} and {@code --param2} mean what they mean for
+ * {@link RateLimiterFactory#createLimiter}; a port of -1 disables that listener.
+ * {@code ADAPTIVE_CONCURRENCY} is not served, since neither protocol can release a slot.
+ */
 public class Main {
-    public static void main(String[] args) {
-        //TIP Press <shortcut actionId="ShowIntentionActions"/> with your caret at the highlighted text
-        // to see how IntelliJ IDEA suggests fixing it.
-        System.out.printf("Hello and welcome!");
+    public static void main(String[] args) throws IOException, InterruptedException {
+        LimiterType type = LimiterType.TOKEN_BUCKET;
+        long param1 = 100;
+        long param2 = 100;
+        String bind = "127.0.0.1";
+        int httpPort = 8080;
+        int binaryPort = 9090;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--type":
+                    type = LimiterType.valueOf(value);
+                    break;
+                case "--param1":
+                    param1 = Long.parseLong(value);
+                    break;
+                case "--param2":
+                    param2 = Long.parseLong(value);
+                    break;
+                case "--bind":
+                    bind = value;
+                    break;
+                case "--http-port":
+                    httpPort = Integer.parseInt(value);
+                    break;
+                case "--binary-port":
+                    binaryPort = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        if (args.length % 2 != 0) {
+            throw new IllegalArgumentException("Option without a value: " + args[args.length - 1]);
+        }
 
-        for (int i = 1; i <= 5; i++) {
-            //TIP Press <shortcut actionId="Debug"/> to start debugging your code. We have set one <icon src="AllIcons.Debugger.Db_set_breakpoint"/> breakpoint
-            // for you, but you can always add more by pressing <shortcut actionId="ToggleLineBreakpoint"/>.
-            System.out.println("i = " + i);
+        if (type == LimiterType.ADAPTIVE_CONCURRENCY) {
+            throw new IllegalArgumentException("ADAPTIVE_CONCURRENCY limits requests in flight and needs a release() "
+                    + "after each one, which neither decision protocol offers.");
         }
+        RateLimiter limiter = RateLimiterFactory.createLimiter(type, param1, param2);
+        InetAddress address = InetAddress.getByName(bind);
+        HttpDecisionServer http = httpPort < 0 ? null
+                : new HttpDecisionServer(new InetSocketAddress(address, httpPort), limiter);
+        BinaryDecisionServer binary = binaryPort < 0 ? null
+                : new BinaryDecisionServer(new InetSocketAddress(address, binaryPort), limiter,
+                Runtime.getRuntime().availableProcessors());
+
+        System.out.printf("%s(%d, %d) serving decisions on %s: http %s, binary %s%n", type, param1, param2, bind,
+                http == null ? "off" : String.valueOf(http.port()), binary == null ? "off" : String.valueOf(binary.port()));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (http != null) {
+                http.close();
+            }
+            if (binary != null) {
+                try {
+                    binary.close();
+                } catch (IOException ignored) {
+                    // exiting anyway
+                }
+            }
+        }));
+        Thread.currentThread().join(); // the listeners run on daemon threads; serve until killed
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,113 @@
+package org.example.cache;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.function.IntFunction;
+
+/**
+ * Replays key traces against {@link EvictionPolicy} implementations and prints hit rates.
+ * <p>
+ * Built-in traces (keys are ints, 2M accesses each):
+ * <ul>
+ *   <li>{@code zipf} - skewed popularity over 1M keys, exponent 0.9</li>
+ *   <li>{@code zipf+scans} - the same, with a burst of 5,000 never-repeated keys after
+ *       every 20,000 accesses; the case that flushes LRU</li>
+ *   <li>{@code loop} - 6,000 keys accessed round-robin; LRU misses every time once the
+ *       loop is larger than the cache</li>
+ * </ul>
+ * Pass trace files (one key per line) as arguments to replay recorded traffic instead:
+ * <pre>
+ *   java org.example.cache.CacheSimulator access-log-keys.txt
+ * </pre>
+ */
+public class CacheSimulator {
+    private static final int[] CACHE_SIZES = {1_000, 5_000, 20_000};
+    private static final int ACCESSES = 2_000_000;
+
+    public static void main(String[] args) throws IOException {
+        Map<String, Object[]> traces = new LinkedHashMap<>();
+        if (args.length == 0) {
+            traces.put("zipf", boxed(zipf(1_000_000, 0.9, 0, 0)));
+            traces.put("zipf+scans", boxed(zipf(1_000_000, 0.9, 20_000, 5_000)));
+            traces.put("loop", boxed(loop(6_000)));
+        } else {
+            for (String file : args) {
+                traces.put(file, Files.readAllLines(Path.of(file)).stream().map(String::trim)
+                        .filter(line -> !line.isEmpty()).toArray());
+            }
+        }
+
+        System.out.printf("%-14s %8s %10s %10s%n", "trace", "size", "LRU", "W-TinyLFU");
+        for (Map.Entry<String, Object[]> trace : traces.entrySet()) {
+            for (int size : CACHE_SIZES) {
+                double lru = hitRate(trace.getValue(), LruPolicy::new, size);
+                double tinyLfu = hitRate(trace.getValue(), WTinyLfuPolicy::new, size);
+                System.out.printf("%-14s %,8d %9.2f%% %9.2f%%%n", trace.getKey(), size, lru, tinyLfu);
+            }
+        }
+    }
+
+    /**
+     * @return the percentage of accesses that hit
+     */
+    static <K> double hitRate(K[] trace, IntFunction<EvictionPolicy<K>> policyFactory, int size) {
+        EvictionPolicy<K> policy = policyFactory.apply(size);
+        long hits = 0;
+        for (K key : trace) {
+            if (policy.contains(key)) {
+                hits++;
+                policy.recordAccess(key);
+            } else {
+                policy.admit(key);
+            }
+        }
+        return 100.0 * hits / trace.length;
+    }
+
+    /**
+     * Zipf-distributed keys {@code 0..n-1}, drawn by binary search over the cumulative
+     * distribution. Every {@code scanEvery} accesses (0 = never), {@code scanLength}
+     * fresh keys that never repeat are inserted.
+     */
+    static int[] zipf(int n, double exponent, int scanEvery, int scanLength) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1.0 / Math.pow(k + 1, exponent);
+            cdf[k] = sum;
+        }
+        SplittableRandom random = new SplittableRandom(42);
+        int[] trace = new int[ACCESSES];
+        int nextScanKey = n;
+        for (int i = 0; i < ACCESSES; i++) {
+            if (scanEvery > 0 && i % scanEvery == 0) {
+                for (int j = 0; j < scanLength && i < ACCESSES; j++) {
+                    trace[i++] = nextScanKey++;
+                }
+                if (i == ACCESSES) {
+                    break;
+                }
+            }
+            int rank = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+            trace[i] = rank >= 0 ? rank : -rank - 1;
+        }
+        return trace;
+    }
+
+    static int[] loop(int n) {
+        int[] trace = new int[ACCESSES];
+        for (int i = 0; i < ACCESSES; i++) {
+            trace[i] = i % n;
+        }
+        return trace;
+    }
+
+    private static Object[] boxed(int[] keys) {
+        return Arrays.stream(keys).boxed().toArray();
+    }
+}
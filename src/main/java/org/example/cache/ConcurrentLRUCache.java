@@ -0,0 +1,364 @@
+package org.example.cache;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Thread-safe, generic, bounded cache with approximately LRU eviction.
+ * <p>
+ * Lookups go through a {@link ConcurrentHashMap} and never take a lock. What makes a
+ * plain LRU cache hard to share is that every {@code get} reorders the list; here a hit
+ * only records the node in a small read buffer, and the reorderings are replayed in a
+ * batch by whichever thread next holds the lock.
+ * <ul>
+ *   <li>Keys are partitioned by hash into segments. Each segment has its own lock, access
+ *       order list and share of the capacity, so writers to different segments never
+ *       contend.</li>
+ *   <li>Each segment has several read buffers, picked by thread. A buffer is a fixed ring
+ *       that is lossy: when it is full, or when two readers race for the same slot, the
+ *       access is dropped rather than waited for. Dropping a few reorderings of a hot key
+ *       hardly changes its position.</li>
+ *   <li>A reader that fills a buffer past half drains the segment if the lock is free
+ *       ({@code tryLock}); writers drain before changing the list.</li>
+ * </ul>
+ * Eviction is LRU within a segment, so the cache as a whole evicts a key that is close
+ * to, but not always exactly, the least recently used one. The total never exceeds
+ * {@code capacity}; since each segment only holds its own share, a segment that gets
+ * more than its share of keys evicts while the cache is not yet full. Segments are kept
+ * at 16 or more entries so that this stays a small effect.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class ConcurrentLRUCache<K, V> {
+    private static final int READ_BUFFER_SIZE = 16; // power of two
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+    private static final int DRAIN_THRESHOLD = READ_BUFFER_SIZE / 2;
+    private static final int MIN_SEGMENT_CAPACITY = 16;
+
+    private static final class Node<K, V> {
+        final K key;
+        volatile V value;
+        Node<K, V> prev;  // list fields and 'removed' are guarded by the segment lock
+        Node<K, V> next;
+        boolean removed;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Ring of recently read nodes. Readers claim a slot with one CAS on {@code writes};
+     * only the lock holder advances {@code reads}.
+     */
+    private static final class ReadBuffer<K, V> {
+        final AtomicReferenceArray<Node<K, V>> slots = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+        final AtomicLong writes = new AtomicLong();
+        volatile long reads;
+    }
+
+    private static final class Segment<K, V> {
+        final ReentrantLock lock = new ReentrantLock();
+        final int capacity;
+        final Node<K, V> head = new Node<>(null, null); // dummy head (MRU side) and tail (LRU side)
+        final Node<K, V> tail = new Node<>(null, null);
+        final ReadBuffer<K, V>[] readBuffers;
+        int size;
+
+        Segment(int capacity, int readBuffers) {
+            this.capacity = capacity;
+            @SuppressWarnings({"rawtypes", "unchecked"})
+            ReadBuffer<K, V>[] buffers = (ReadBuffer<K, V>[]) new ReadBuffer[readBuffers];
+            this.readBuffers = buffers;
+            for (int i = 0; i < readBuffers; i++) {
+                this.readBuffers[i] = new ReadBuffer<>();
+            }
+            head.next = tail;
+            tail.prev = head;
+        }
+    }
+
+    private final Map<K, Node<K, V>> map;
+    private final Segment<K, V>[] segments;
+    private final int segmentShift;
+    private final int readBufferMask;
+    private final int capacity;
+
+    public ConcurrentLRUCache(int capacity) {
+        this(capacity, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param concurrency expected number of threads using the cache at once; sets the
+     *                    number of segments and of read buffers per segment
+     */
+    public ConcurrentLRUCache(int capacity, int concurrency) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be greater than zero.");
+        }
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Concurrency must be greater than zero.");
+        }
+        // About 4 segments per thread, but keep segments large enough that per-segment LRU stays close to global LRU
+        int segmentCount = Math.min(ceilingPowerOfTwo(4 * concurrency),
+                Math.max(1, Integer.highestOneBit(capacity / MIN_SEGMENT_CAPACITY)));
+        int readBuffers = Math.min(ceilingPowerOfTwo(concurrency), 64);
+
+        this.capacity = capacity;
+        this.map = new ConcurrentHashMap<>(Math.min(capacity, 1 << 16));
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        Segment<K, V>[] segments = (Segment<K, V>[]) new Segment[segmentCount];
+        this.segments = segments;
+        for (int i = 0; i < segmentCount; i++) {
+            // Spread the remainder so the segment capacities add up to exactly 'capacity'
+            int share = capacity / segmentCount + (i < capacity % segmentCount ? 1 : 0);
+            segments[i] = new Segment<>(share, readBuffers);
+        }
+        this.segmentShift = Integer.SIZE - Integer.numberOfTrailingZeros(segmentCount);
+        this.readBufferMask = readBuffers - 1;
+    }
+
+    /**
+     * @return the cached value, or null if the key is not cached
+     */
+    public V get(K key) {
+        Node<K, V> node = map.get(key);
+        if (node == null) {
+            return null;
+        }
+        recordRead(segmentFor(key), node);
+        return node.value;
+    }
+
+    /**
+     * Returns the cached value, computing and caching it first if the key is absent.
+     * The function runs under the key's segment lock, so keep it short; concurrent calls
+     * for the same key compute it once.
+     */
+    public V get(K key, Function<? super K, ? extends V> mappingFunction) {
+        V value = get(key);
+        if (value != null) {
+            return value;
+        }
+        Segment<K, V> segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            drainReadBuffers(segment);
+            Node<K, V> node = map.get(key);
+            if (node != null) {
+                moveToHead(segment, node);
+                return node.value;
+            }
+            value = mappingFunction.apply(key);
+            if (value != null) {
+                insert(segment, key, value);
+            }
+            return value;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Adds or replaces the value for {@code key}, evicting the segment's least recently
+     * used entry if it is full.
+     */
+    public void put(K key, V value) {
+        if (value == null) {
+            throw new NullPointerException("Null values are not supported.");
+        }
+        Segment<K, V> segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            drainReadBuffers(segment);
+            Node<K, V> node = map.get(key);
+            if (node != null) {
+                node.value = value;
+                moveToHead(segment, node);
+            } else {
+                insert(segment, key, value);
+            }
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the removed value, or null if the key was not cached
+     */
+    public V remove(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            Node<K, V> node = map.remove(key);
+            if (node == null) {
+                return null;
+            }
+            unlink(segment, node);
+            return node.value;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    // Caller holds the segment lock and has checked that the key is absent
+    private void insert(Segment<K, V> segment, K key, V value) {
+        Node<K, V> node = new Node<>(key, value);
+        map.put(key, node);
+        addToHead(segment, node);
+        segment.size++;
+
+        if (segment.size > segment.capacity) {
+            // Evict the LRU node (the one just before the dummy tail)
+            Node<K, V> lruNode = segment.tail.prev;
+            map.remove(lruNode.key, lruNode);
+            unlink(segment, lruNode);
+        }
+    }
+
+    private void recordRead(Segment<K, V> segment, Node<K, V> node) {
+        ReadBuffer<K, V> buffer = segment.readBuffers[(int) Thread.currentThread().threadId() & readBufferMask];
+        long writes = buffer.writes.get();
+        long pending = writes - buffer.reads;
+
+        // Lossy: a full buffer or a lost race drops this access instead of waiting
+        if (pending < READ_BUFFER_SIZE && buffer.writes.compareAndSet(writes, writes + 1)) {
+            buffer.slots.lazySet((int) writes & READ_BUFFER_MASK, node);
+            pending++;
+        }
+        if (pending >= DRAIN_THRESHOLD && segment.lock.tryLock()) {
+            try {
+                drainReadBuffers(segment);
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    // Caller holds the segment lock; replays the recorded reads as moves to the MRU end
+    private void drainReadBuffers(Segment<K, V> segment) {
+        for (ReadBuffer<K, V> buffer : segment.readBuffers) {
+            long reads = buffer.reads;
+            long writes = buffer.writes.get();
+            for (; reads < writes; reads++) {
+                int index = (int) reads & READ_BUFFER_MASK;
+                Node<K, V> node = buffer.slots.get(index);
+                if (node == null) {
+                    break; // slot claimed but not yet filled; pick it up next drain
+                }
+                buffer.slots.lazySet(index, null);
+                if (!node.removed) {
+                    moveToHead(segment, node);
+                }
+            }
+            buffer.reads = reads;
+        }
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return segments.length == 1 ? segments[0] : segments[h >>> segmentShift];
+    }
+
+    /* --- Doubly Linked List Helper Methods, called with the segment lock held --- */
+
+    private void unlink(Segment<K, V> segment, Node<K, V> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+        node.removed = true;
+        segment.size--;
+    }
+
+    private void addToHead(Segment<K, V> segment, Node<K, V> node) {
+        node.next = segment.head.next;
+        node.prev = segment.head;
+        segment.head.next.prev = node;
+        segment.head.next = node;
+    }
+
+    private void moveToHead(Segment<K, V> segment, Node<K, V> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        addToHead(segment, node);
+    }
+
+    private static int ceilingPowerOfTwo(int n) {
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    /* --- Main method: the LRUCache example, then read throughput against a locked LinkedHashMap --- */
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println("Testing ConcurrentLRUCache (Capacity 2):");
+        ConcurrentLRUCache<Integer, Integer> lRUCache = new ConcurrentLRUCache<>(2);
+        lRUCache.put(1, 1);
+        lRUCache.put(2, 2);
+        System.out.println("get(1): " + lRUCache.get(1)); // Expected: 1
+        lRUCache.put(3, 3);                                  // evicts 2
+        System.out.println("get(2): " + lRUCache.get(2)); // Expected: null
+        lRUCache.put(4, 4);                                  // evicts 1
+        System.out.println("get(1): " + lRUCache.get(1)); // Expected: null
+        System.out.println("get(3): " + lRUCache.get(3)); // Expected: 3
+        System.out.println("get(4): " + lRUCache.get(4)); // Expected: 4
+
+        System.out.println("\nRead throughput, 10,000 cached keys, 200ms per run:");
+        final int KEYS = 10_000;
+        ConcurrentLRUCache<Integer, Integer> striped = new ConcurrentLRUCache<>(KEYS);
+        Map<Integer, Integer> locked = Collections.synchronizedMap(new LinkedHashMap<>(KEYS, 0.75f, true));
+        for (int i = 0; i < KEYS; i++) {
+            striped.put(i, i);
+            locked.put(i, i);
+        }
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            long stripedOps = measureReads(striped::get, KEYS, threads);
+            long lockedOps = measureReads(locked::get, KEYS, threads);
+            System.out.printf("  threads=%2d  striped=%,12d ops/s  synchronized LinkedHashMap=%,12d ops/s\n",
+                    threads, stripedOps, lockedOps);
+        }
+    }
+
+    private static long measureReads(Function<Integer, Integer> reader, int keys, int threads)
+            throws InterruptedException {
+        final long RUN_MS = 200;
+        LongAdder ops = new LongAdder();
+        long deadline = System.nanoTime() + RUN_MS * 1_000_000;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            workers[t] = new Thread(() -> {
+                int key = seed * 7919;
+                long count = 0;
+                while ((count & 1023) != 0 || System.nanoTime() < deadline) {
+                    key = (key * 1103515245 + 12345) & Integer.MAX_VALUE;
+                    reader.apply(key % keys);
+                    count++;
+                }
+                ops.add(count);
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return ops.sum() * 1000 / RUN_MS;
+    }
+}
@@ -0,0 +1,38 @@
+package org.example.cache;
+
+/**
+ * Decides which keys a bounded cache keeps. The policy tracks residency itself; the
+ * cache only reports hits and misses and drops whatever key the policy gives back.
+ * <p>
+ * Implementations: {@link LruPolicy} and {@link WTinyLfuPolicy}. {@link PolicyCache}
+ * puts a policy in front of a map; {@link CacheSimulator} replays traces against policies.
+ * Implementations are not thread-safe.
+ *
+ * @param <K> key type
+ */
+public interface EvictionPolicy<K> {
+
+    boolean contains(K key);
+
+    /**
+     * Records a hit on a resident key.
+     */
+    void recordAccess(K key);
+
+    /**
+     * Offers a key that just missed.
+     *
+     * @return the key that is no longer resident as a result: an evicted resident, the
+     * offered key itself if the policy rejected it, or null if nothing had to go
+     */
+    K admit(K key);
+
+    /**
+     * Forgets a resident key, e.g. one removed from the cache explicitly.
+     */
+    void remove(K key);
+
+    int size();
+
+    int capacity();
+}
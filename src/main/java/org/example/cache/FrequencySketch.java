@@ -0,0 +1,90 @@
+package org.example.cache;
+
+/**
+ * Approximate access counts for {@link WTinyLfuPolicy}: a count-min sketch of 4-bit
+ * counters that ages by halving.
+ * <p>
+ * Each key maps to one counter in each of four rows; its estimate is the smallest of
+ * the four, which can only over-count (when every one of its counters is shared with
+ * other keys). Increments are conservative: only the counters equal to that minimum are
+ * raised, which keeps keys that share counters from inflating each other.
+ * <p>
+ * Counters saturate at 15, which is plenty to tell hot keys from one-off ones. After
+ * {@code 10 * capacity} increments every counter is halved, so the sketch follows
+ * popularity as it shifts instead of remembering what was hot long ago.
+ * <p>
+ * Sixteen counters are packed per {@code long}, with about one counter per row per cached
+ * key: 2 bytes per cached key in total.
+ */
+final class FrequencySketch<K> {
+    private static final int ROWS = 4;
+    private static final long MAX_COUNT = 15;
+    private static final long RESET_MASK = 0x7777_7777_7777_7777L; // clears each nibble's top bit after >>> 1
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    private final long[] table;     // ROWS rows, laid out one after another
+    private final int rowCounters;  // counters per row, a power of two
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int capacity) {
+        int counters = Math.max(16, Integer.highestOneBit(Math.max(1, capacity) - 1) << 1);
+        this.rowCounters = Math.min(counters, 1 << 26);
+        this.table = new long[ROWS * rowCounters / 16];
+        this.sampleSize = (int) Math.min(Integer.MAX_VALUE, 10L * Math.max(1, capacity));
+    }
+
+    int frequency(K key) {
+        int hash = spread(key.hashCode());
+        long min = MAX_COUNT;
+        for (int row = 0; row < ROWS; row++) {
+            min = Math.min(min, counter(indexOf(hash, row)));
+        }
+        return (int) min;
+    }
+
+    void increment(K key) {
+        int hash = spread(key.hashCode());
+        long min = MAX_COUNT;
+        for (int row = 0; row < ROWS; row++) {
+            min = Math.min(min, counter(indexOf(hash, row)));
+        }
+        if (min == MAX_COUNT) {
+            return;
+        }
+        // Conservative update: only the counters holding the estimate go up
+        for (int row = 0; row < ROWS; row++) {
+            int index = indexOf(hash, row);
+            if (counter(index) == min) {
+                table[index >>> 4] += 1L << ((index & 15) << 2);
+            }
+        }
+        if (++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    // Halves every counter
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private long counter(int index) {
+        return (table[index >>> 4] >>> ((index & 15) << 2)) & MAX_COUNT;
+    }
+
+    // Global counter index of 'hash' in 'row'
+    private int indexOf(int hash, int row) {
+        int h = (hash ^ SEEDS[row]) * SEEDS[row];
+        h ^= h >>> 15;
+        return row * rowCounters + (h & (rowCounters - 1));
+    }
+
+    private static int spread(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,405 @@
+package org.example.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Thread-safe cache that computes missing values with a loader and expires them by age.
+ * <ul>
+ *   <li><b>Expire after write</b>: an entry is dropped a fixed time after it was loaded.</li>
+ *   <li><b>Expire after access</b>: an entry is dropped once it has not been read for a
+ *       fixed time.</li>
+ *   <li><b>Refresh ahead</b>: a read of an entry older than the refresh interval still
+ *       returns the current value, and reloads it in the background, so popular
+ *       entries are replaced before they expire and readers never wait for them.</li>
+ *   <li><b>Single flight</b>: concurrent misses for a key share one in-flight load,
+ *       tracked as a {@link CompletableFuture} per key; a background refresh counts as
+ *       that load too. When a popular entry expires, the loader runs once, not once per
+ *       waiting thread.</li>
+ * </ul>
+ * A time of 0 disables the corresponding feature. An expired entry is never returned,
+ * whether or not it has been cleaned up yet.
+ * <p>
+ * Cleanup is amortized: every entry is placed on a hashed timing wheel at its deadline,
+ * and each cache operation advances the wheel by at most {@value #CLEANUP_BUDGET}
+ * entries, under a {@code tryLock} so callers never queue behind each other. An entry
+ * whose deadline was pushed back by reads is simply re-slotted when its old slot comes
+ * due. Nothing ever scans the whole map.
+ * <p>
+ * The cache is bounded only by expiry; loads returning null are not cached. The loader
+ * runs in the calling thread on a miss, and on {@code refreshExecutor} for refreshes.
+ */
+public class LoadingCache<K, V> {
+    static final int CLEANUP_BUDGET = 64;
+    private static final int WHEEL_SIZE = 512; // power of two
+    private static final int TICKS_PER_TTL = 64;
+
+    private static final class Entry<K, V> {
+        final K key;
+        final V value;
+        final long writeTime;
+        volatile long accessTime;
+
+        Entry(K key, V value, long now) {
+            this.key = key;
+            this.value = value;
+            this.writeTime = now;
+            this.accessTime = now;
+        }
+    }
+
+    private final Function<? super K, ? extends V> loader;
+    private final long expireAfterWriteMillis;
+    private final long expireAfterAccessMillis;
+    private final long refreshAfterWriteMillis;
+    private final Executor refreshExecutor;
+    private final LongSupplier clock;
+
+    private final Map<K, Entry<K, V>> entries = new ConcurrentHashMap<>();
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final Queue<Entry<K, V>>[] wheel;
+    private final long tickMillis;
+    private final ReentrantLock cleanupLock = new ReentrantLock();
+    private volatile long cursorTick; // written under cleanupLock: all slots up to here have been processed
+
+    public LoadingCache(Function<? super K, ? extends V> loader, long expireAfterWriteMillis,
+                        long expireAfterAccessMillis, long refreshAfterWriteMillis) {
+        this(loader, expireAfterWriteMillis, expireAfterAccessMillis, refreshAfterWriteMillis,
+                ForkJoinPool.commonPool(), System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock milliseconds, only compared with itself; inject a fake one to test expiry
+     */
+    public LoadingCache(Function<? super K, ? extends V> loader, long expireAfterWriteMillis,
+                        long expireAfterAccessMillis, long refreshAfterWriteMillis,
+                        Executor refreshExecutor, LongSupplier clock) {
+        if (expireAfterWriteMillis < 0 || expireAfterAccessMillis < 0 || refreshAfterWriteMillis < 0) {
+            throw new IllegalArgumentException("Times must not be negative.");
+        }
+        this.loader = loader;
+        this.expireAfterWriteMillis = expireAfterWriteMillis;
+        this.expireAfterAccessMillis = expireAfterAccessMillis;
+        this.refreshAfterWriteMillis = refreshAfterWriteMillis;
+        this.refreshExecutor = refreshExecutor;
+        this.clock = clock;
+
+        long shortestTtl = Math.min(expireAfterWriteMillis == 0 ? Long.MAX_VALUE : expireAfterWriteMillis,
+                expireAfterAccessMillis == 0 ? Long.MAX_VALUE : expireAfterAccessMillis);
+        this.tickMillis = shortestTtl == Long.MAX_VALUE ? 1000 : Math.max(1, shortestTtl / TICKS_PER_TTL);
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        Queue<Entry<K, V>>[] wheel = new Queue[WHEEL_SIZE];
+        this.wheel = wheel;
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.cursorTick = clock.getAsLong() / tickMillis;
+    }
+
+    /**
+     * Returns the value for {@code key}, loading it if absent or expired. Concurrent
+     * callers for the same key wait for a single load.
+     *
+     * @throws RuntimeException whatever the loader threw, in every waiting caller
+     */
+    public V get(K key) {
+        long now = clock.getAsLong();
+        Entry<K, V> entry = entries.get(key);
+        V value;
+
+        if (entry != null && !isExpired(entry, now)) {
+            if (expireAfterAccessMillis > 0 && entry.accessTime != now) {
+                entry.accessTime = now; // at most one write per key per millisecond
+            }
+            if (refreshAfterWriteMillis > 0 && now - entry.writeTime >= refreshAfterWriteMillis) {
+                refresh(key);
+            }
+            value = entry.value;
+        } else {
+            value = load(key);
+        }
+        cleanUp(now);
+        return value;
+    }
+
+    /**
+     * @return the cached value, or null if it is absent or expired; never loads
+     */
+    public V getIfPresent(K key) {
+        long now = clock.getAsLong();
+        Entry<K, V> entry = entries.get(key);
+        if (entry == null || isExpired(entry, now)) {
+            return null;
+        }
+        if (expireAfterAccessMillis > 0 && entry.accessTime != now) {
+            entry.accessTime = now;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Removes the entry for {@code key}. A load or refresh already running for it still
+     * answers its own callers, but its value is not cached.
+     */
+    public void invalidate(K key) {
+        // In-flight first: a load that installs after this sees it is no longer current
+        inFlight.remove(key);
+        entries.remove(key);
+    }
+
+    /**
+     * Entries currently held, including expired ones not yet cleaned up.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Runs one budget-limited cleanup step; callers normally never need to.
+     */
+    public void cleanUp() {
+        cleanUp(clock.getAsLong());
+    }
+
+    private V load(K key) {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            return join(existing);
+        }
+        try {
+            long now = clock.getAsLong();
+            // Another thread may have finished its load between our miss and our putIfAbsent
+            Entry<K, V> entry = entries.get(key);
+            V value = entry != null && !isExpired(entry, now) ? entry.value : loadAndInstall(key, mine);
+            mine.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            // After completing: a new caller either sees the installed entry or joins this future
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private void refresh(K key) {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        if (inFlight.putIfAbsent(key, mine) != null) {
+            return; // a load or refresh is already running
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    mine.complete(loadAndInstall(key, mine));
+                } catch (Throwable t) {
+                    // The old value stays; the next read past the refresh interval retries
+                    mine.completeExceptionally(t);
+                } finally {
+                    inFlight.remove(key, mine);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key, mine);
+            mine.completeExceptionally(e);
+        }
+    }
+
+    private V loadAndInstall(K key, CompletableFuture<V> mine) {
+        V value = loader.apply(key);
+        if (value == null) {
+            entries.remove(key);
+            return null;
+        }
+        Entry<K, V> entry = new Entry<>(key, value, clock.getAsLong());
+        entries.put(key, entry);
+        if (inFlight.get(key) != mine) {
+            // Invalidated while loading: the value may predate the invalidation
+            entries.remove(key, entry);
+            return value;
+        }
+        if (expireAfterWriteMillis > 0 || expireAfterAccessMillis > 0) {
+            wheel[(int) (slotTick(deadline(entry)) & (WHEEL_SIZE - 1))].offer(entry);
+        }
+        return value;
+    }
+
+    private static <V> V join(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+
+    private boolean isExpired(Entry<K, V> entry, long now) {
+        return now >= deadline(entry);
+    }
+
+    private long deadline(Entry<K, V> entry) {
+        long deadline = Long.MAX_VALUE;
+        if (expireAfterWriteMillis > 0) {
+            deadline = entry.writeTime + expireAfterWriteMillis;
+        }
+        if (expireAfterAccessMillis > 0) {
+            deadline = Math.min(deadline, entry.accessTime + expireAfterAccessMillis);
+        }
+        return deadline;
+    }
+
+    private long slotTick(long deadline) {
+        // Entries not quite due when their slot is processed are re-slotted one tick later
+        long tick = deadline / tickMillis;
+        // Never behind the cursor; if the cursor moves on meanwhile, the entry waits one more revolution
+        return Math.max(tick, cursorTick + 1);
+    }
+
+    /**
+     * Processes due wheel slots, touching at most {@link #CLEANUP_BUDGET} entries and one
+     * revolution of slots. If the budget runs out mid-slot the cursor stays put and the
+     * next call carries on there.
+     */
+    private void cleanUp(long now) {
+        if (!cleanupLock.tryLock()) {
+            return; // someone else is cleaning; don't wait for them
+        }
+        try {
+            long nowTick = now / tickMillis;
+            if (nowTick - cursorTick > WHEEL_SIZE) {
+                // After a quiet spell every slot is due: one revolution visits them all, so
+                // skip the empty ticks in between rather than walking each of them
+                cursorTick = nowTick - WHEEL_SIZE;
+            }
+            int budget = CLEANUP_BUDGET;
+            List<Entry<K, V>> deferred = null;
+
+            while (cursorTick < nowTick && budget > 0) {
+                long tick = cursorTick + 1;
+                Queue<Entry<K, V>> slot = wheel[(int) (tick & (WHEEL_SIZE - 1))];
+                Entry<K, V> entry;
+                while (budget > 0 && (entry = slot.poll()) != null) {
+                    budget--;
+                    if (entries.get(entry.key) != entry) {
+                        continue; // replaced or invalidated; nothing to expire
+                    }
+                    long deadline = deadline(entry);
+                    if (now >= deadline) {
+                        entries.remove(entry.key, entry);
+                    } else {
+                        // Still alive: read since slotted, or due in a later revolution
+                        if (deferred == null) {
+                            deferred = new ArrayList<>();
+                        }
+                        deferred.add(entry);
+                    }
+                }
+                if (budget == 0 && !slot.isEmpty()) {
+                    break;
+                }
+                cursorTick = tick;
+            }
+            if (deferred != null) {
+                for (Entry<K, V> entry : deferred) {
+                    wheel[(int) (slotTick(deadline(entry)) & (WHEEL_SIZE - 1))].offer(entry);
+                }
+            }
+        } finally {
+            cleanupLock.unlock();
+        }
+    }
+
+    /* --- Main method: single flight, refresh ahead and amortized expiry on a fake clock --- */
+    public static void main(String[] args) throws InterruptedException {
+        AtomicInteger loads = new AtomicInteger();
+        AtomicLong now = new AtomicLong(1_000_000);
+        Function<String, String> slowLoader = key -> {
+            loads.incrementAndGet();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return key.toUpperCase() + "@" + now.get();
+        };
+        // 10s after write, 2s after access, refresh after 5s; refreshes run inline for a deterministic demo
+        LoadingCache<String, String> cache = new LoadingCache<>(slowLoader, 10_000, 2_000, 5_000, Runnable::run, now::get);
+
+        System.out.println("Single flight: 16 threads miss the same key at once");
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[16];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                cache.get("config");
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        System.out.println("  loader calls: " + loads.get()); // Expected: 1
+
+        System.out.println("Refresh ahead and expiry (fake clock)");
+        for (long step : new long[]{1_500, 1_500, 1_500, 1_000, 500, 3_000}) {
+            now.addAndGet(step);
+            System.out.printf("  +%.1fs get: %s (loads %d)\n", (now.get() - 1_000_000) / 1000.0, cache.get("config"), loads.get());
+        }
+        // Expected: cached through +4.5s; at +5.5s the old value is returned and a refresh loads the
+        // new one, seen at +6.0s; after 3s without reads it has expired and is loaded again
+
+        System.out.println("Amortized cleanup: 10,000 entries expire, then cache calls continue");
+        LoadingCache<Integer, Integer> counters = new LoadingCache<>(k -> k, 1_000, 0, 0, Runnable::run, now::get);
+        for (int i = 0; i < 10_000; i++) {
+            counters.get(i);
+        }
+        now.addAndGet(1_000);
+        for (int calls = 0; calls <= 200; calls += 50) {
+            System.out.printf("  after %3d calls: %,6d entries held\n", calls, counters.size());
+            for (int i = 0; i < 50; i++) {
+                counters.get(-1);
+            }
+        }
+        // Expected: each call removes up to 64 expired entries, so the count falls steadily
+
+        System.out.println("Invalidate during a load, then a day without calls");
+        Thread loading = new Thread(() -> cache.get("late"));
+        loading.start();
+        Thread.sleep(50);
+        cache.invalidate("late");
+        loading.join();
+        System.out.println("  cached after invalidate: " + cache.getIfPresent("late")); // Expected: null
+        now.addAndGet(86_400_000);
+        long started = System.nanoTime();
+        counters.get(-1);
+        System.out.printf("  first call after the gap: %.1f ms%n", (System.nanoTime() - started) / 1e6);
+        // Expected: a few ms at most; walking all ~5.8M empty ticks instead took over 100 ms
+    }
+}
@@ -0,0 +1,58 @@
+package org.example.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Plain LRU: admits every key and evicts the least recently used one. The baseline
+ * {@link WTinyLfuPolicy} is measured against.
+ */
+public class LruPolicy<K> implements EvictionPolicy<K> {
+    private final int capacity;
+    private final LinkedHashMap<K, Boolean> resident;
+
+    public LruPolicy(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be greater than zero.");
+        }
+        this.capacity = capacity;
+        this.resident = new LinkedHashMap<>(capacity, 0.75f, true);
+    }
+
+    @Override
+    public boolean contains(K key) {
+        return resident.containsKey(key);
+    }
+
+    @Override
+    public void recordAccess(K key) {
+        resident.get(key); // access order: moves the key to the MRU end
+    }
+
+    @Override
+    public K admit(K key) {
+        resident.put(key, Boolean.TRUE);
+        if (resident.size() <= capacity) {
+            return null;
+        }
+        Iterator<K> eldest = resident.keySet().iterator();
+        K victim = eldest.next();
+        eldest.remove();
+        return victim;
+    }
+
+    @Override
+    public void remove(K key) {
+        resident.remove(key);
+    }
+
+    @Override
+    public int size() {
+        return resident.size();
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+}
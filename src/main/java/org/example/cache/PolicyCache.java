@@ -0,0 +1,59 @@
+package org.example.cache;
+
+import java.util.HashMap;
+
+/**
+ * Bounded map whose residency is decided by a pluggable {@link EvictionPolicy}. With a
+ * {@link WTinyLfuPolicy} a scan of one-off keys no longer flushes the hot entries.
+ * Not thread-safe.
+ */
+public class PolicyCache<K, V> {
+    private final EvictionPolicy<K> policy;
+    private final HashMap<K, V> values;
+
+    public PolicyCache(EvictionPolicy<K> policy) {
+        this.policy = policy;
+        this.values = new HashMap<>(policy.capacity());
+    }
+
+    /**
+     * @return the cached value, or null if the key is not cached
+     */
+    public V get(K key) {
+        V value = values.get(key);
+        if (value != null) {
+            policy.recordAccess(key);
+        }
+        return value;
+    }
+
+    /**
+     * Adds or replaces the value for {@code key}. A new key may be rejected by the policy,
+     * in which case it is not cached at all.
+     */
+    public void put(K key, V value) {
+        if (value == null) {
+            throw new NullPointerException("Null values are not supported.");
+        }
+        if (values.put(key, value) != null) {
+            policy.recordAccess(key);
+            return;
+        }
+        K evicted = policy.admit(key);
+        if (evicted != null) {
+            values.remove(evicted);
+        }
+    }
+
+    public V remove(K key) {
+        V value = values.remove(key);
+        if (value != null) {
+            policy.remove(key);
+        }
+        return value;
+    }
+
+    public int size() {
+        return values.size();
+    }
+}
@@ -0,0 +1,210 @@
+package org.example.cache;
+
+import java.util.Arrays;
+
+/**
+ * {@link LRUCache} without per-entry objects: the same {@code int -> int} cache and the
+ * same O(1) operations, kept entirely in flat arrays allocated once in the constructor.
+ * <p>
+ * Entry {@code e} lives at index {@code e} of four parallel arrays: {@code keys},
+ * {@code values}, and the {@code prev}/{@code next} links of the access-order list,
+ * which are entry indexes instead of references. Index {@code capacity} is the list's
+ * dummy head/tail. Lookups go through an open-addressed table of entry indexes with
+ * linear probing; removing from it uses backward-shift deletion, so there are no
+ * tombstones and probe sequences never degrade as entries turn over.
+ * <p>
+ * Memory is 16 bytes per entry plus 4 bytes per index slot (the index is kept at most
+ * 3/4 full): about 22-27 bytes per entry, against roughly 80+ for a {@code Node}, a boxed
+ * {@code Integer} and a {@code HashMap} entry. Once full, a put reuses the evicted
+ * entry's index, so nothing is allocated after construction. Not thread-safe.
+ */
+class PrimitiveLRUCache {
+    static final int MAX_CAPACITY = 1 << 29;
+    private static final int EMPTY = -1;
+
+    private final int capacity;
+    private final int[] keys;
+    private final int[] values;
+    private final int[] prev;
+    private final int[] next;
+    private final int[] index;  // slot -> entry, or EMPTY
+    private final int mask;
+    private final int sentinel; // dummy list node: next[sentinel] is the MRU entry, prev[sentinel] the LRU one
+    private int size;
+
+    /**
+     * Initializes the cache with a given positive capacity, up to {@link #MAX_CAPACITY}.
+     */
+    public PrimitiveLRUCache(int capacity) {
+        if (capacity <= 0 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Capacity must be between 1 and " + MAX_CAPACITY + ": " + capacity);
+        }
+        this.capacity = capacity;
+        this.keys = new int[capacity];
+        this.values = new int[capacity];
+        this.prev = new int[capacity + 1];
+        this.next = new int[capacity + 1];
+        this.sentinel = capacity;
+        prev[sentinel] = sentinel;
+        next[sentinel] = sentinel;
+
+        int tableSize = Integer.highestOneBit((int) Math.min(1L << 30, (long) capacity * 4 / 3 + 1) - 1) << 1;
+        this.index = new int[Math.max(2, tableSize)];
+        this.mask = index.length - 1;
+        Arrays.fill(index, EMPTY);
+    }
+
+    /**
+     * Gets the value associated with the key. If found, marks the entry as MRU.
+     * @return The value if the key exists, otherwise -1.
+     */
+    public int get(int key) {
+        int slot = findSlot(key);
+        int entry = index[slot];
+        if (entry == EMPTY) {
+            return -1;
+        }
+        moveToHead(entry);
+        return values[entry];
+    }
+
+    /**
+     * Updates the value of an existing key or adds a new key-value pair, evicting the
+     * LRU entry when the cache is full.
+     */
+    public void put(int key, int value) {
+        int slot = findSlot(key);
+        int entry = index[slot];
+
+        if (entry != EMPTY) {
+            // Case 1: Key exists (Update)
+            values[entry] = value;
+            moveToHead(entry);
+            return;
+        }
+
+        // Case 2: Key does not exist (Insert)
+        if (size < capacity) {
+            entry = size++;
+        } else {
+            // Full: evict the LRU entry and reuse its index for the new key
+            entry = prev[sentinel];
+            unlink(entry);
+            removeFromIndex(findSlot(keys[entry]));
+            // Deletion may have shifted our probe sequence; find the insertion slot again
+            slot = findSlot(key);
+        }
+        keys[entry] = key;
+        values[entry] = value;
+        index[slot] = entry;
+        addToHead(entry);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /* --- Open-addressed index --- */
+
+    // The slot holding 'key', or the empty slot where it would be inserted
+    private int findSlot(int key) {
+        int slot = hash(key) & mask;
+        while (true) {
+            int entry = index[slot];
+            if (entry == EMPTY || keys[entry] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Empties {@code slot} and shifts later entries of the same probe run back into the
+     * hole, so every remaining key is still reachable from its home slot.
+     */
+    private void removeFromIndex(int slot) {
+        int hole = slot;
+        int i = (slot + 1) & mask;
+        while (index[i] != EMPTY) {
+            int home = hash(keys[index[i]]) & mask;
+            // The entry at i may move into the hole unless its home lies cyclically in (hole, i]
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                index[hole] = index[i];
+                hole = i;
+            }
+            i = (i + 1) & mask;
+        }
+        index[hole] = EMPTY;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /* --- Doubly Linked List Helper Methods (indexes instead of references) --- */
+
+    private void unlink(int entry) {
+        next[prev[entry]] = next[entry];
+        prev[next[entry]] = prev[entry];
+    }
+
+    private void addToHead(int entry) {
+        next[entry] = next[sentinel];
+        prev[entry] = sentinel;
+        prev[next[sentinel]] = entry;
+        next[sentinel] = entry;
+    }
+
+    private void moveToHead(int entry) {
+        unlink(entry);
+        addToHead(entry);
+    }
+
+    /* --- Main method: the LRUCache example, then heap per entry against LRUCache --- */
+    public static void main(String[] args) {
+        System.out.println("Testing PrimitiveLRUCache (Capacity 2):");
+        PrimitiveLRUCache lRUCache = new PrimitiveLRUCache(2);
+        lRUCache.put(1, 1);
+        lRUCache.put(2, 2);
+        System.out.println("get(1): " + lRUCache.get(1)); // Expected: 1
+        lRUCache.put(3, 3);                                  // evicts 2
+        System.out.println("get(2): " + lRUCache.get(2)); // Expected: -1
+        lRUCache.put(4, 4);                                  // evicts 1
+        System.out.println("get(1): " + lRUCache.get(1)); // Expected: -1
+        System.out.println("get(3): " + lRUCache.get(3)); // Expected: 3
+        System.out.println("get(4): " + lRUCache.get(4)); // Expected: 4
+
+        final int ENTRIES = 1_000_000;
+        long before = usedHeap();
+        PrimitiveLRUCache primitive = new PrimitiveLRUCache(ENTRIES);
+        for (int i = 0; i < 2 * ENTRIES; i++) {
+            primitive.put(i, i); // the second half evicts the first
+        }
+        long primitiveBytes = usedHeap() - before;
+
+        before = usedHeap();
+        LRUCache boxed = new LRUCache(ENTRIES);
+        for (int i = 0; i < 2 * ENTRIES; i++) {
+            boxed.put(i, i);
+        }
+        long boxedBytes = usedHeap() - before;
+
+        System.out.printf("\nHeap per entry at %,d entries: PrimitiveLRUCache %d B, LRUCache %d B\n",
+                ENTRIES, primitiveBytes / ENTRIES, boxedBytes / ENTRIES);
+        // Keep both reachable until measured
+        System.out.println("get(" + (2 * ENTRIES - 1) + "): " + primitive.get(2 * ENTRIES - 1) + " / " + boxed.get(2 * ENTRIES - 1));
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
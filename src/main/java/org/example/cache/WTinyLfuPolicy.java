@@ -0,0 +1,212 @@
+package org.example.cache;
+
+import java.util.HashMap;
+
+/**
+ * W-TinyLFU: an LRU admission window in front of a segmented LRU main region, with a
+ * frequency filter deciding which keys get from one into the other.
+ * <p>
+ * New keys enter the window (1% of the capacity). A key pushed out of the window is a
+ * candidate for the main region; if the main region is full, the candidate gets in only
+ * if the {@link FrequencySketch} has seen it more often than the main region's eviction
+ * victim. Otherwise the candidate itself is dropped. A burst of one-off keys therefore
+ * passes through the window and leaves without displacing anything hot, which is where
+ * plain LRU loses its hit rate.
+ * <p>
+ * The main region is a segmented LRU: keys admitted from the window start in probation
+ * (20%), and a hit there promotes them to protected (80%). Victims come from the LRU end
+ * of probation, so a key must have been hit inside the main region to be safe from
+ * eviction by a slightly more popular candidate.
+ * <p>
+ * The sketch counts every access, hits and misses, and halves itself periodically so
+ * that frequencies follow shifts in popularity.
+ */
+public class WTinyLfuPolicy<K> implements EvictionPolicy<K> {
+
+    private enum Region { WINDOW, PROBATION, PROTECTED }
+
+    private static final class Node<K> {
+        final K key;
+        Region region;
+        Node<K> prev;
+        Node<K> next;
+
+        Node(K key, Region region) {
+            this.key = key;
+            this.region = region;
+        }
+    }
+
+    private final int capacity;
+    private final int windowCapacity;
+    private final int mainCapacity;
+    private final int protectedCapacity;
+    private final HashMap<K, Node<K>> nodes;
+    private final FrequencySketch<K> sketch;
+
+    // Dummy heads of the three circular lists: head.next is the MRU node, head.prev the LRU one
+    private final Node<K> window = new Node<>(null, Region.WINDOW);
+    private final Node<K> probation = new Node<>(null, Region.PROBATION);
+    private final Node<K> protectedHead = new Node<>(null, Region.PROTECTED);
+    private int windowSize;
+    private int probationSize;
+    private int protectedSize;
+
+    public WTinyLfuPolicy(int capacity) {
+        this(capacity, 0.01);
+    }
+
+    /**
+     * @param windowShare fraction of the capacity given to the admission window, in (0, 1)
+     */
+    public WTinyLfuPolicy(int capacity, double windowShare) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be greater than zero.");
+        }
+        if (windowShare <= 0 || windowShare >= 1) {
+            throw new IllegalArgumentException("Window share must be between 0 and 1: " + windowShare);
+        }
+        this.capacity = capacity;
+        this.windowCapacity = Math.max(1, (int) (capacity * windowShare));
+        this.mainCapacity = capacity - windowCapacity;
+        this.protectedCapacity = (int) (mainCapacity * 0.8);
+        this.nodes = new HashMap<>(capacity);
+        this.sketch = new FrequencySketch<>(capacity);
+        selfLink(window);
+        selfLink(probation);
+        selfLink(protectedHead);
+    }
+
+    @Override
+    public boolean contains(K key) {
+        return nodes.containsKey(key);
+    }
+
+    @Override
+    public void recordAccess(K key) {
+        sketch.increment(key);
+        Node<K> node = nodes.get(key);
+        if (node == null) {
+            return;
+        }
+        switch (node.region) {
+            case WINDOW:
+                moveToHead(window, node);
+                break;
+            case PROBATION:
+                // A hit in probation earns protection; protected overflow goes back to probation
+                unlink(node);
+                probationSize--;
+                node.region = Region.PROTECTED;
+                addToHead(protectedHead, node);
+                protectedSize++;
+                if (protectedSize > protectedCapacity) {
+                    Node<K> demoted = protectedHead.prev;
+                    unlink(demoted);
+                    protectedSize--;
+                    demoted.region = Region.PROBATION;
+                    addToHead(probation, demoted);
+                    probationSize++;
+                }
+                break;
+            case PROTECTED:
+                moveToHead(protectedHead, node);
+                break;
+        }
+    }
+
+    @Override
+    public K admit(K key) {
+        sketch.increment(key);
+        Node<K> node = new Node<>(key, Region.WINDOW);
+        nodes.put(key, node);
+        addToHead(window, node);
+        windowSize++;
+        if (windowSize <= windowCapacity) {
+            return null;
+        }
+
+        // The window's LRU key becomes the candidate for the main region
+        Node<K> candidate = window.prev;
+        unlink(candidate);
+        windowSize--;
+        if (probationSize + protectedSize < mainCapacity) {
+            candidate.region = Region.PROBATION;
+            addToHead(probation, candidate);
+            probationSize++;
+            return null;
+        }
+
+        Node<K> victim = probationSize > 0 ? probation.prev : protectedHead.prev;
+        if (victim == protectedHead || sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+            // Not more popular than what it would replace: reject the candidate
+            nodes.remove(candidate.key);
+            return candidate.key;
+        }
+        unlink(victim);
+        if (victim.region == Region.PROBATION) {
+            probationSize--;
+        } else {
+            protectedSize--;
+        }
+        nodes.remove(victim.key);
+        candidate.region = Region.PROBATION;
+        addToHead(probation, candidate);
+        probationSize++;
+        return victim.key;
+    }
+
+    @Override
+    public void remove(K key) {
+        Node<K> node = nodes.remove(key);
+        if (node == null) {
+            return;
+        }
+        unlink(node);
+        switch (node.region) {
+            case WINDOW:
+                windowSize--;
+                break;
+            case PROBATION:
+                probationSize--;
+                break;
+            case PROTECTED:
+                protectedSize--;
+                break;
+        }
+    }
+
+    @Override
+    public int size() {
+        return nodes.size();
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+
+    /* --- Doubly Linked List Helper Methods --- */
+
+    private static <K> void selfLink(Node<K> head) {
+        head.next = head;
+        head.prev = head;
+    }
+
+    private void unlink(Node<K> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+    }
+
+    private void addToHead(Node<K> head, Node<K> node) {
+        node.next = head.next;
+        node.prev = head;
+        head.next.prev = node;
+        head.next = node;
+    }
+
+    private void moveToHead(Node<K> head, Node<K> node) {
+        unlink(node);
+        addToHead(head, node);
+    }
+}
@@ -0,0 +1,250 @@
+package org.example.ratelimiter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrency limiter that finds its own limit from the latencies its callers report.
+ * <p>
+ * Requests for a key may start while fewer than {@code limit} are in flight. Each
+ * {@link #release} reports a latency, and the limit moves according to the
+ * {@link Algorithm}:
+ * <ul>
+ *   <li>{@link Algorithm#GRADIENT} - compares the average latency of each window of
+ *       {@value #SAMPLE_WINDOW} samples with a baseline, the lowest window latency seen.
+ *       While latency stays within 1.5x the baseline the limit grows by about its square
+ *       root per window (the queue it is allowed to build); beyond that the gradient
+ *       {@code 1.5 * baseline / latency} (at least 0.5) pulls it back. Changes are
+ *       smoothed, and a limit that is not being used (fewer than half the slots were
+ *       ever taken during the window) is left alone so idle periods do not inflate it.
+ *       <p>
+ *       A baseline measured under load would include queueing and let the limit creep
+ *       up, and a downstream that became slower for good would keep the limit pinned
+ *       down. So every {@value #PROBE_INTERVAL} windows the limit is halved until the
+ *       requests started before then have finished and one more window has completed;
+ *       that window's latency becomes the new baseline and the limit is restored. That
+ *       costs a few percent of throughput.</li>
+ *   <li>{@link Algorithm#AIMD} - TCP style: grows by one per limit's worth of successful
+ *       samples while at least half the slots are busy, and is cut by 10% on a drop.</li>
+ * </ul>
+ * Both treat {@link #releaseDropped}, and a latency above the optional threshold, as a
+ * drop. Like TCP, they back off at most once per round trip: drops reported by
+ * requests that were already in flight at the last backoff are ignored, so one
+ * overloaded moment costs 10% rather than 10% per request caught in it. The limit stays
+ * between 1 and {@code maxLimit}. A key's state is reaped once it has had nothing in
+ * flight for {@value #IDLE_MILLIS}ms; it then starts over from the initial limit.
+ */
+public class AdaptiveConcurrencyLimiter implements ConcurrencyLimiter {
+
+    public enum Algorithm { AIMD, GRADIENT }
+
+    static final int SAMPLE_WINDOW = 16;
+    static final long IDLE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final double TOLERANCE = 1.5;        // latency may reach 1.5x the baseline before the limit shrinks
+    private static final double SMOOTHING = 0.2;
+    static final int PROBE_INTERVAL = 100;
+
+    private final Algorithm algorithm;
+    private final int initialLimit;
+    private final int maxLimit;
+    private final long latencyThresholdNanos;
+    private final Map<String, ConcurrencyWindow> userWindows = new ConcurrentHashMap<>();
+    private final ExpiryWheel expiryWheel = ExpiryWheel.shared();
+    private final TimeSource timeSource;
+
+    public AdaptiveConcurrencyLimiter(Algorithm algorithm, int initialLimit, int maxLimit) {
+        this(algorithm, initialLimit, maxLimit, 0, TimeSource.monotonic());
+    }
+
+    /**
+     * @param latencyThresholdNanos latency above which a completed request counts as a
+     *                              drop, or 0 for no threshold
+     */
+    public AdaptiveConcurrencyLimiter(Algorithm algorithm, int initialLimit, int maxLimit,
+                                      long latencyThresholdNanos, TimeSource timeSource) {
+        if (initialLimit <= 0 || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("Limits must satisfy 0 < initialLimit <= maxLimit: "
+                    + initialLimit + ", " + maxLimit);
+        }
+        if (latencyThresholdNanos < 0) {
+            throw new IllegalArgumentException("Latency threshold must not be negative.");
+        }
+        this.algorithm = algorithm;
+        this.initialLimit = initialLimit;
+        this.maxLimit = maxLimit;
+        this.latencyThresholdNanos = latencyThresholdNanos;
+        this.timeSource = timeSource;
+    }
+
+    @Override
+    public boolean allowRequest(String key) {
+        long currentTime = timeSource.millis();
+
+        while (true) {
+            ConcurrencyWindow window = lookup(key, currentTime);
+
+            synchronized (window) {
+                if (window.evicted) {
+                    // Reaped between lookup and lock; pick up the fresh window
+                    continue;
+                }
+                window.lastActive = currentTime;
+                if (window.inFlight >= (int) window.limit) {
+                    return false;
+                }
+                window.inFlight++;
+                window.maxInFlight = Math.max(window.maxInFlight, window.inFlight);
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void release(String key, long latencyNanos) {
+        if (latencyNanos < 0) {
+            throw new IllegalArgumentException("Latency must not be negative: " + latencyNanos);
+        }
+        if (latencyThresholdNanos > 0 && latencyNanos > latencyThresholdNanos) {
+            releaseDropped(key);
+            return;
+        }
+        ConcurrencyWindow window = held(key);
+        synchronized (window) {
+            checkHeld(key, window);
+            int inFlight = window.inFlight--;
+            window.lastActive = timeSource.millis();
+            if (window.backoffHoldoff > 0) {
+                window.backoffHoldoff--;
+            }
+            if (algorithm == Algorithm.AIMD) {
+                if (2 * inFlight >= window.limit) {
+                    window.limit = Math.min(maxLimit, window.limit + 1 / window.limit);
+                }
+                return;
+            }
+
+            if (window.probeDrainLeft > 0) {
+                window.probeDrainLeft--; // started before the probe: its latency includes the old queue
+                return;
+            }
+            window.sampleSumNanos += latencyNanos;
+            if (++window.sampleCount == SAMPLE_WINDOW) {
+                adjustGradient(window, (double) window.sampleSumNanos / SAMPLE_WINDOW);
+                window.sampleSumNanos = 0;
+                window.sampleCount = 0;
+                window.maxInFlight = window.inFlight;
+            }
+        }
+    }
+
+    @Override
+    public void releaseDropped(String key) {
+        ConcurrencyWindow window = held(key);
+        synchronized (window) {
+            checkHeld(key, window);
+            window.inFlight--;
+            window.lastActive = timeSource.millis();
+            if (window.backoffHoldoff > 0) {
+                window.backoffHoldoff--;
+                return;
+            }
+            window.limit = Math.max(1, window.limit * BACKOFF_RATIO);
+            window.backoffHoldoff = window.inFlight;
+        }
+    }
+
+    @Override
+    public int limit(String key) {
+        ConcurrencyWindow window = userWindows.get(key);
+        if (window == null) {
+            return initialLimit;
+        }
+        synchronized (window) {
+            return (int) window.limit;
+        }
+    }
+
+    @Override
+    public int inFlight(String key) {
+        ConcurrencyWindow window = userWindows.get(key);
+        if (window == null) {
+            return 0;
+        }
+        synchronized (window) {
+            return window.inFlight;
+        }
+    }
+
+    // Caller holds the window's lock
+    private void adjustGradient(ConcurrencyWindow window, double shortRtt) {
+        if (window.probing) {
+            window.probing = false;
+            window.baselineNanos = shortRtt;
+            window.limit = window.limitBeforeProbe;
+            window.windowsUntilProbe = PROBE_INTERVAL;
+            return;
+        }
+        if (window.baselineNanos == 0 || shortRtt < window.baselineNanos) {
+            window.baselineNanos = shortRtt;
+        }
+        if (--window.windowsUntilProbe == 0) {
+            window.limitBeforeProbe = window.limit;
+            window.limit = Math.max(1, window.limit / 2);
+            window.probing = true;
+            window.probeDrainLeft = window.inFlight;
+            return;
+        }
+        if (window.maxInFlight < window.limit / 2) {
+            return; // not using the limit, so latency says nothing about it
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * window.baselineNanos / shortRtt));
+        double target = window.limit * gradient + Math.sqrt(window.limit);
+        double limit = window.limit * (1 - SMOOTHING) + target * SMOOTHING;
+        window.limit = Math.max(1, Math.min(maxLimit, limit));
+    }
+
+    private ConcurrencyWindow lookup(String key, long currentTime) {
+        ConcurrencyWindow window = userWindows.get(key);
+        if (window == null) {
+            // Only new keys pay for the capturing lambda
+            window = userWindows.computeIfAbsent(key, k -> track(k, new ConcurrencyWindow(initialLimit, currentTime)));
+        }
+        return window;
+    }
+
+    // A key with requests in flight is never reaped, so its window must still be there
+    private ConcurrencyWindow held(String key) {
+        ConcurrencyWindow window = userWindows.get(key);
+        if (window == null) {
+            throw new IllegalStateException("No request in flight for key: " + key);
+        }
+        return window;
+    }
+
+    // Caller holds the window's lock
+    private static void checkHeld(String key, ConcurrencyWindow window) {
+        if (window.inFlight == 0) {
+            throw new IllegalStateException("No request in flight for key: " + key);
+        }
+    }
+
+    private ConcurrencyWindow track(String key, ConcurrencyWindow window) {
+        expiryWheel.schedule(IDLE_MILLIS, () -> expire(key, window));
+        return window;
+    }
+
+    private long expire(String key, ConcurrencyWindow window) {
+        synchronized (window) {
+            long idleFor = timeSource.millis() - window.lastActive;
+            if (window.inFlight > 0 || idleFor < IDLE_MILLIS) {
+                return Math.max(1, IDLE_MILLIS - idleFor);
+            }
+            window.evicted = true;
+            userWindows.remove(key, window);
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package org.example.ratelimiter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Serves {@link RateLimiter} decisions over a compact pipelined binary protocol, for
+ * callers that cannot link the library. {@link RemoteRateLimiter} is the Java client.
+ * <p>
+ * Wire format, big-endian. A client may send any number of request frames without
+ * waiting; responses come back on the same connection in request order.
+ * <pre>
+ *   request:  frameLength (int, bytes after this field), requestId (int), count (unsigned short),
+ *             count x [keyLength (unsigned short), key (UTF-8)]
+ *   response: requestId (int), count (unsigned short), decisions ((count + 7) / 8 bytes;
+ *             bit i % 8 of byte i / 8 is 1 if key i was allowed)
+ * </pre>
+ * A frame is decided with one {@link RateLimiter#allowRequests} call, so a batch costs
+ * one clock read and one state visit per distinct key. Frames larger than
+ * {@link #MAX_FRAME_BYTES} or malformed ones close the connection. A
+ * {@link ConcurrencyLimiter} is refused, as the protocol has no way to release a slot.
+ * <p>
+ * I/O is non-blocking: a blocking acceptor hands connections round-robin to a few
+ * selector threads, each of which reads every complete frame in its buffer, decides them,
+ * and writes all responses with one write. While a connection's responses cannot be
+ * written out, it is not read from, so a client that does not read its responses only
+ * stalls itself.
+ */
+public final class BinaryDecisionServer implements AutoCloseable {
+    public static final int MAX_FRAME_BYTES = 1 << 20;
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final RateLimiter limiter;
+    private final ServerSocketChannel serverChannel;
+    private final Worker[] workers;
+    private final Thread acceptor;
+    private volatile boolean closed;
+
+    /**
+     * Binds to {@code port} on the loopback interface (0 picks a free port), with one
+     * selector thread per available processor.
+     */
+    public BinaryDecisionServer(int port, RateLimiter limiter) throws IOException {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), limiter,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    public BinaryDecisionServer(InetSocketAddress address, RateLimiter limiter, int ioThreads) throws IOException {
+        if (ioThreads <= 0) {
+            throw new IllegalArgumentException("I/O thread count must be greater than zero.");
+        }
+        if (limiter instanceof ConcurrencyLimiter) {
+            throw new IllegalArgumentException("A concurrency limiter cannot be served: there is no release call.");
+        }
+        this.limiter = limiter;
+        this.serverChannel = ServerSocketChannel.open().bind(address, 1024);
+        this.workers = new Worker[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            workers[i] = new Worker(Selector.open());
+            Thread thread = new Thread(workers[i], "ratelimiter-binary-io-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        this.acceptor = new Thread(this::acceptLoop, "ratelimiter-binary-acceptor");
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+    }
+
+    public int port() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverChannel.close();
+        for (Worker worker : workers) {
+            worker.selector.wakeup();
+        }
+    }
+
+    private void acceptLoop() {
+        int next = 0;
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                workers[next].register(channel);
+                next = (next + 1) % workers.length;
+            } catch (IOException e) {
+                if (serverChannel.isOpen()) {
+                    System.err.println("BinaryDecisionServer: accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * One selector thread and the connections registered with it.
+     */
+    private final class Worker implements Runnable {
+        final Selector selector;
+        final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+
+        Worker(Selector selector) {
+            this.selector = selector;
+        }
+
+        void register(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!closed) {
+                    selector.select();
+                    SocketChannel channel;
+                    while ((channel = pending.poll()) != null) {
+                        channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+                    }
+                    Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                    while (selected.hasNext()) {
+                        SelectionKey key = selected.next();
+                        selected.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isWritable()) {
+                                connection.flush(key);
+                            }
+                            if (key.isValid() && key.isReadable()) {
+                                connection.read(key);
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            // Broken connection or protocol violation: drop this client only
+                            key.cancel();
+                            connection.channel.close();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("BinaryDecisionServer: selector failed: " + e.getMessage());
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    closeQuietly(key.channel());
+                }
+                pending.forEach(BinaryDecisionServer::closeQuietly);
+                closeQuietly(selector);
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // shutting down anyway
+        }
+    }
+
+    private final class Connection {
+        final SocketChannel channel;
+        ByteBuffer in = ByteBuffer.allocate(BUFFER_BYTES);   // filling: unparsed bytes are [0, position)
+        ByteBuffer out = ByteBuffer.allocate(BUFFER_BYTES);  // filling: unsent bytes are [0, position)
+        String[] keys = new String[0];
+        boolean[] decisions = new boolean[0];
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void read(SelectionKey key) throws IOException {
+            if (channel.read(in) < 0) {
+                key.cancel();
+                channel.close();
+                return;
+            }
+            in.flip();
+            while (in.remaining() >= 4) {
+                int frameLength = in.getInt(in.position());
+                if (frameLength < 6 || frameLength > MAX_FRAME_BYTES) {
+                    throw new IllegalStateException("Bad frame length: " + frameLength);
+                }
+                if (in.remaining() < 4 + frameLength) {
+                    if (in.capacity() < 4 + frameLength) {
+                        in = ByteBuffer.allocate(4 + frameLength).put(in);
+                        in.flip();
+                    }
+                    break;
+                }
+                in.position(in.position() + 4);
+                decide(frameLength);
+            }
+            in.compact();
+            flush(key);
+        }
+
+        private void decide(int frameLength) {
+            int frameEnd = in.position() + frameLength;
+            int requestId = in.getInt();
+            int count = Short.toUnsignedInt(in.getShort());
+            if (keys.length != count) {
+                keys = new String[count];
+                decisions = new boolean[count];
+            }
+            byte[] bytes = in.array();
+            for (int i = 0; i < count; i++) {
+                int keyLength = Short.toUnsignedInt(in.getShort());
+                int start = in.position();
+                if (start + keyLength > frameEnd) {
+                    throw new IllegalStateException("Key runs past the end of its frame");
+                }
+                keys[i] = new String(bytes, in.arrayOffset() + start, keyLength, StandardCharsets.UTF_8);
+                in.position(start + keyLength);
+            }
+            if (in.position() != frameEnd) {
+                throw new IllegalStateException("Frame has trailing bytes");
+            }
+
+            limiter.allowRequests(keys, decisions);
+
+            int bitmapBytes = (count + 7) >>> 3;
+            if (out.remaining() < 6 + bitmapBytes) {
+                out = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + 6 + bitmapBytes)).put(out.flip());
+            }
+            out.putInt(requestId);
+            out.putShort((short) count);
+            for (int b = 0; b < bitmapBytes; b++) {
+                int bits = 0;
+                for (int i = b << 3, end = Math.min(count, i + 8); i < end; i++) {
+                    if (decisions[i]) {
+                        bits |= 1 << (i & 7);
+                    }
+                }
+                out.put((byte) bits);
+            }
+        }
+
+        void flush(SelectionKey key) throws IOException {
+            out.flip();
+            channel.write(out);
+            out.compact();
+            // Stop reading until the client has taken its responses
+            key.interestOps(out.position() > 0 ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+    }
+}
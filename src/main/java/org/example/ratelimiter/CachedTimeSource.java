@@ -0,0 +1,59 @@
+package org.example.ratelimiter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Coarse clock: one daemon thread copies the delegate's reading into a volatile field
+ * every {@code resolutionMillis}, and {@link #millis()} is a plain volatile read.
+ * <p>
+ * Readings lag the delegate by up to one resolution step, so limiters see time in steps
+ * of that size. That is fine as long as the resolution is well below the windows and
+ * leak intervals being enforced.
+ */
+public final class CachedTimeSource implements TimeSource, AutoCloseable {
+    private final TimeSource delegate;
+    private final long resolutionNanos;
+    private final Thread ticker;
+
+    private volatile long now;
+    private volatile boolean closed;
+
+    public CachedTimeSource(long resolutionMillis) {
+        this(TimeSource.monotonic(), resolutionMillis);
+    }
+
+    public CachedTimeSource(TimeSource delegate, long resolutionMillis) {
+        if (resolutionMillis <= 0) {
+            throw new IllegalArgumentException("Resolution must be greater than zero.");
+        }
+        this.delegate = delegate;
+        this.resolutionNanos = TimeUnit.MILLISECONDS.toNanos(resolutionMillis);
+        this.now = delegate.millis();
+
+        this.ticker = new Thread(this::run, "ratelimiter-clock");
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    @Override
+    public long millis() {
+        return now;
+    }
+
+    /**
+     * Stops the ticker thread; the last reading stays frozen.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(ticker);
+    }
+
+    private void run() {
+        while (!closed) {
+            LockSupport.parkNanos(this, resolutionNanos);
+            now = delegate.millis();
+        }
+    }
+}
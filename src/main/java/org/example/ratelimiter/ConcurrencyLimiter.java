@@ -0,0 +1,33 @@
+package org.example.ratelimiter;
+
+/**
+ * Limits how many requests per key may be in flight at once, rather than how many may
+ * start per time unit.
+ * <p>
+ * {@link #allowRequest} takes a slot; every allowed request must later give it back
+ * with exactly one {@link #release} or {@link #releaseDropped} call for the same key.
+ * Implementations may use the reported outcomes to move the limit.
+ */
+public interface ConcurrencyLimiter extends RateLimiter {
+
+    /**
+     * Frees the slot of a request that completed, reporting how long it took.
+     */
+    void release(String key, long latencyNanos);
+
+    /**
+     * Frees the slot of a request that failed from overload: it timed out, or the
+     * downstream rejected it.
+     */
+    void releaseDropped(String key);
+
+    /**
+     * @return the current concurrency limit for {@code key}
+     */
+    int limit(String key);
+
+    /**
+     * @return the number of requests for {@code key} currently holding a slot
+     */
+    int inFlight(String key);
+}
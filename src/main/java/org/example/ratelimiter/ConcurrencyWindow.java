@@ -0,0 +1,23 @@
+package org.example.ratelimiter;
+
+public class ConcurrencyWindow {
+    double limit;
+    int inFlight;
+    double baselineNanos; // lowest window latency since the last probe: the no-queueing latency
+    long sampleSumNanos;  // latencies reported in the current sample window
+    int sampleCount;
+    int maxInFlight;      // highest in-flight count seen in the current sample window
+    int backoffHoldoff;   // releases still due from requests in flight at the last backoff
+    int windowsUntilProbe;
+    boolean probing;      // running at a reduced limit to measure a fresh baseline
+    int probeDrainLeft;   // releases still due from requests started before the probe
+    double limitBeforeProbe;
+    long lastActive;
+    boolean evicted;      // set under the window's lock once the expiry wheel has removed it
+
+    public ConcurrencyWindow(double initialLimit, long currentTime) {
+        this.limit = initialLimit;
+        this.windowsUntilProbe = AdaptiveConcurrencyLimiter.PROBE_INTERVAL;
+        this.lastActive = currentTime;
+    }
+}
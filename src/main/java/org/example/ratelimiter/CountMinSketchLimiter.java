@@ -0,0 +1,307 @@
+package org.example.ratelimiter;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sliding window counter limiter for key spaces too large to keep state per key, such
+ * as client IPs, in a fixed amount of memory.
+ * <p>
+ * Decisions use the same estimate as {@link SlidingWindowCounter}, but the counts come
+ * from a count-min sketch instead of a map: {@code depth} rows of {@code width} counters,
+ * a key hashing to one counter per row and reading the smallest. Every counter holds
+ * two cells, for the current and the previous fixed window, tagged with their window so
+ * a stale cell reads as zero and is overwritten in place; nothing is ever cleared or
+ * expired. Allowed requests use a conservative update: only the key's counters that are
+ * below its new estimate are raised, which keeps collisions from inflating counters that
+ * are already high. Denied requests are not counted.
+ * <p>
+ * <b>Error bounds.</b> With {@code N} requests allowed across all keys in a window, the
+ * width {@code e / epsilon} and depth {@code ln(1 / delta)} (both rounded up, the width
+ * to a power of two) guarantee that a key's count is overestimated by more than
+ * {@code epsilon * N} with probability at most {@code delta}. Counts are never
+ * underestimated, so the sketch never lets a key through that {@link SlidingWindowCounter}
+ * would deny; its only error is denying early a key whose counters are shared with busy
+ * ones. To keep that rare, size {@code epsilon} well below {@code maxRequests / N} for the
+ * {@code N} expected at peak. The sketch takes {@code 16 * depth * width} bytes
+ * ({@link #sketchBytes}) however many keys there are; the defaults (epsilon 0.0001,
+ * delta 0.01) give 5 rows of 32768 counters, 2.5 MB.
+ * <p>
+ * <b>Heavy hitters.</b> With {@code heavyHitters > 0} the first denial of a key promotes
+ * it to exact {@link WindowCounter} state seeded from its (over-)estimate, while fewer
+ * than {@code heavyHitters} keys are promoted. The top offenders are then decided exactly
+ * and stop adding to the sketch, so they no longer crowd out the keys they collide with.
+ * A promoted key is demoted, and its slot freed, two windows after its last counted request.
+ * <p>
+ * Keys are hashed with a random per-instance seed, so clients cannot pick keys that
+ * collide in every row. Decisions for one key are serialized on one of
+ * {@value #LOCK_STRIPES} lock stripes, so concurrent requests for it cannot both pass the
+ * last permit; counters shared with other keys are only raised, with a CAS.
+ */
+public class CountMinSketchLimiter implements RetryAfterRateLimiter {
+    public static final double DEFAULT_EPSILON = 0.0001;
+    public static final double DEFAULT_DELTA = 0.01;
+    public static final int DEFAULT_HEAVY_HITTERS = 1024;
+    static final int LOCK_STRIPES = 256;
+    private static final long MAX_CELLS = 1L << 28;
+    // How far ahead of a writer's window a cell's tag may be and still count as newer
+    private static final int MAX_WINDOWS_AHEAD = 1 << 16;
+    private static final VarHandle CELLS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final long maxRequests;
+    private final long windowSizeMillis;
+    private final int depth;
+    private final int width;
+    private final long[] cells;          // [row][column][window parity]: (window tag << 32) | count
+    private final long seed;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final AtomicLong newestWindow;
+    private final TimeSource timeSource;
+
+    private final int heavyHitters;
+    private final Map<String, WindowCounter> promoted = new ConcurrentHashMap<>();
+    private final AtomicInteger promotedCount = new AtomicInteger();
+    private final ExpiryWheel expiryWheel = ExpiryWheel.shared();
+
+    public CountMinSketchLimiter(long maxRequests, long windowSizeMillis) {
+        this(maxRequests, windowSizeMillis, DEFAULT_EPSILON, DEFAULT_DELTA, DEFAULT_HEAVY_HITTERS,
+                TimeSource.monotonic());
+    }
+
+    /**
+     * @param epsilon      largest overestimate, as a fraction of the requests allowed per window; sets the width
+     * @param delta        probability that a key's count is off by more than that; sets the depth
+     * @param heavyHitters how many keys may hold exact state at once; 0 disables promotion
+     */
+    public CountMinSketchLimiter(long maxRequests, long windowSizeMillis, double epsilon, double delta,
+                                 int heavyHitters, TimeSource timeSource) {
+        if (maxRequests <= 0 || maxRequests > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Max requests must be between 1 and 2^31 - 1: " + maxRequests);
+        }
+        if (windowSizeMillis <= 0) {
+            throw new IllegalArgumentException("Window size must be greater than zero.");
+        }
+        if (!(epsilon > 0 && epsilon < 1) || !(delta > 0 && delta < 1)) {
+            throw new IllegalArgumentException("Epsilon and delta must be between 0 and 1: " + epsilon + ", " + delta);
+        }
+        if (heavyHitters < 0) {
+            throw new IllegalArgumentException("Heavy hitters must not be negative.");
+        }
+        long minWidth = (long) Math.min(MAX_CELLS, Math.ceil(Math.E / epsilon));
+        long rows = (long) Math.min(MAX_CELLS, Math.ceil(Math.log(1 / delta)));
+        long columns = Long.highestOneBit(Math.max(2, minWidth) - 1) << 1;
+        if (rows * columns * 2 > MAX_CELLS) {
+            throw new IllegalArgumentException("Sketch for epsilon " + epsilon + ", delta " + delta
+                    + " would need " + rows + " x " + columns + " counters; at most " + MAX_CELLS / 2 + " fit");
+        }
+        this.maxRequests = maxRequests;
+        this.windowSizeMillis = windowSizeMillis;
+        this.depth = (int) Math.max(1, rows);
+        this.width = (int) columns;
+        this.cells = new long[depth * width * 2];
+        this.seed = ThreadLocalRandom.current().nextLong();
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        this.heavyHitters = heavyHitters;
+        this.timeSource = timeSource;
+        this.newestWindow = new AtomicLong(Math.floorDiv(timeSource.millis(), windowSizeMillis));
+    }
+
+    @Override
+    public boolean allowRequest(String userId) {
+        long currentTime = timeSource.millis();
+        long windowIndex = Math.floorDiv(currentTime, windowSizeMillis);
+        long newest = newestWindow.get();
+        if (windowIndex < newest) {
+            // Clock went backwards; count at the start of the newest window seen, where nothing has decayed yet
+            windowIndex = newest;
+            currentTime = newest * windowSizeMillis;
+        } else if (windowIndex > newest) {
+            newestWindow.compareAndSet(newest, windowIndex);
+        }
+
+        long hash = hash(userId);
+        while (true) {
+            if (heavyHitters > 0) {
+                WindowCounter counter = promoted.get(userId);
+                if (counter != null) {
+                    synchronized (counter) {
+                        if (!counter.evicted) {
+                            return tryAcquire(counter, currentTime, windowIndex);
+                        }
+                    }
+                    // Demoted between lookup and lock; the sketch decides again
+                }
+            }
+            synchronized (locks[(int) (hash >>> 56)]) {
+                if (heavyHitters > 0 && promoted.containsKey(userId)) {
+                    continue; // promoted by another thread since we looked
+                }
+                return sketchAcquire(userId, hash, currentTime, windowIndex);
+            }
+        }
+    }
+
+    // From the key's exact counter if promoted, else from its sketch counts, which other keys only raise
+    @Override
+    public long retryAfterMillis(String userId) {
+        long currentTime = timeSource.millis();
+        long windowIndex = Math.floorDiv(currentTime, windowSizeMillis);
+        if (windowIndex < newestWindow.get()) {
+            return 0; // clock went backwards
+        }
+        if (heavyHitters > 0) {
+            WindowCounter counter = promoted.get(userId);
+            if (counter != null) {
+                synchronized (counter) {
+                    if (!counter.evicted) {
+                        return SlidingWindowCounter.retryAfterMillis(counter, currentTime, windowSizeMillis, maxRequests);
+                    }
+                }
+            }
+        }
+        long hash = hash(userId);
+        return SlidingWindowCounter.retryAfterMillis(count(hash, windowIndex - 1), count(hash, windowIndex),
+                currentTime, windowSizeMillis, maxRequests);
+    }
+
+    /**
+     * @return the fixed size of the sketch's counters in bytes
+     */
+    public long sketchBytes() {
+        return (long) cells.length * Long.BYTES;
+    }
+
+    /**
+     * @return how many keys currently hold exact state
+     */
+    public int promotedKeys() {
+        return promotedCount.get();
+    }
+
+    // Caller holds the key's lock stripe, so no other decision for the key is in progress
+    private boolean sketchAcquire(String userId, long hash, long currentTime, long windowIndex) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int currentParity = (int) windowIndex & 1;
+        long current = count(hash, windowIndex);
+        long previous = count(hash, windowIndex - 1);
+
+        if (SlidingWindowCounter.estimate(previous, current, currentTime, windowSizeMillis) >= maxRequests) {
+            if (heavyHitters > 0) {
+                promote(userId, previous, current, windowIndex);
+            }
+            return false;
+        }
+
+        // Conservative update: each counter becomes at least the key's new count, and no more.
+        // A cell a newer window has already taken over is left alone, or a thread that read
+        // the clock before the boundary would roll it back to its own window and count
+        long updated = pack(windowIndex, current + 1);
+        for (int row = 0; row < depth; row++) {
+            int index = cellIndex(row, h1 + row * h2) | currentParity;
+            while (true) {
+                long cell = (long) CELLS.getVolatile(cells, index);
+                if (isNewer(cell, windowIndex) || countIn(cell, windowIndex) > current
+                        || CELLS.compareAndSet(cells, index, cell, updated)) {
+                    break;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Caller holds the key's lock stripe
+    private void promote(String userId, long previous, long current, long windowIndex) {
+        if (promotedCount.incrementAndGet() > heavyHitters) {
+            promotedCount.decrementAndGet();
+            return;
+        }
+        WindowCounter counter = new WindowCounter(windowIndex);
+        counter.previousCount = previous;
+        counter.currentCount = current;
+        promoted.put(userId, counter);
+        expiryWheel.schedule(2 * windowSizeMillis, () -> expire(userId, counter));
+    }
+
+    // Caller holds the counter's lock
+    private boolean tryAcquire(WindowCounter counter, long currentTime, long windowIndex) {
+        SlidingWindowCounter.roll(counter, windowIndex);
+
+        if (SlidingWindowCounter.estimate(counter.previousCount, counter.currentCount,
+                currentTime, windowSizeMillis) < maxRequests) {
+            counter.currentCount++;
+            return true;
+        }
+        return false;
+    }
+
+    // Two windows after the last counted request the sketch holds nothing for the key either
+    private long expire(String userId, WindowCounter counter) {
+        synchronized (counter) {
+            long remaining = (counter.windowIndex + 2) * windowSizeMillis - timeSource.millis();
+            if (remaining > 0) {
+                return remaining;
+            }
+            counter.evicted = true;
+            promoted.remove(userId, counter);
+            promotedCount.decrementAndGet();
+            return 0;
+        }
+    }
+
+    // The key's smallest counter for a window, from the cells of that window's parity
+    private long count(long hash, long windowIndex) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int parity = (int) windowIndex & 1;
+        long count = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            count = Math.min(count, countIn((long) CELLS.getVolatile(cells, cellIndex(row, h1 + row * h2) | parity),
+                    windowIndex));
+        }
+        return count;
+    }
+
+    private int cellIndex(int row, int column) {
+        return (row * width + (column & (width - 1))) << 1;
+    }
+
+    // A tag from another window means the cell is stale. Tags wrap after 2^32 windows, which can
+    // only make a cell untouched for that long read high, and so deny early, never admit extra.
+    private static long countIn(long cell, long windowIndex) {
+        return (int) (cell >>> 32) == (int) windowIndex ? cell & 0xFFFFFFFFL : 0;
+    }
+
+    // Tags compare modulo 2^32, so this holds across the wrap. A thread is only ever a few
+    // windows behind, and the bound keeps a cell untouched for ~2^31 windows from reading as
+    // newer than every writer. 0 is a cell never written.
+    private static boolean isNewer(long cell, long windowIndex) {
+        int ahead = (int) (cell >>> 32) - (int) windowIndex;
+        return cell != 0 && ahead > 0 && ahead < MAX_WINDOWS_AHEAD;
+    }
+
+    private static long pack(long windowIndex, long count) {
+        return (windowIndex << 32) | count;
+    }
+
+    // FNV-1a from a per-instance seed, then the Murmur3 finalizer
+    private long hash(String key) {
+        long h = seed;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,169 @@
+package org.example.ratelimiter;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Front layer that answers repeat denials without touching the wrapped limiter.
+ * <p>
+ * When the delegate denies a key, the wrapper remembers "denied until T" and denies
+ * every request for that key before T itself. T comes from
+ * {@link RetryAfterRateLimiter#retryAfterMillis} when the delegate implements it, so the
+ * cached answer is exactly what the delegate would have said; other limiters get a fixed
+ * {@code fallbackDenyMillis}, trading a little accuracy for shielding them.
+ * <p>
+ * The memory is a direct-mapped table split into stripes, both picked by the key's hash,
+ * so every thread finds a key's denial in the same slot; that includes a server that runs
+ * each request on a new virtual thread. A denial is one array read and one string
+ * compare, and an abusive key reaches the delegate's shared per-key state (and its
+ * monitor or CAS) about once per deny period. Entries are immutable and published with
+ * an opaque array store, so racing writers at worst overwrite each other and a lost
+ * entry only means one more call to the delegate. Collisions simply overwrite, so the
+ * cache needs no eviction and never grows.
+ * <p>
+ * A permit that frees up early (a {@link RefundableRateLimiter#refund}, or a request for
+ * the key made through the delegate directly) is not seen until the cached entry ends.
+ */
+public class DenyCachingRateLimiter implements RateLimiter {
+    private static final int DEFAULT_STRIPES = 64;
+    private static final int DEFAULT_SLOTS = 256;
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(Denial[].class);
+
+    private static final class Denial {
+        final String key;
+        final long until;
+
+        Denial(String key, long until) {
+            this.key = key;
+            this.until = until;
+        }
+    }
+
+    private final RateLimiter delegate;
+    private final RetryAfterRateLimiter retryAfter;  // delegate, if it can estimate; otherwise null
+    private final long fallbackDenyMillis;
+    private final TimeSource timeSource;
+    private final Denial[][] stripes;
+    private final int stripeMask;
+    private final int slotBits;
+    private final int slotMask;
+    private final LongAdder cachedDenials = new LongAdder();
+
+    public DenyCachingRateLimiter(RetryAfterRateLimiter delegate, TimeSource timeSource) {
+        this(delegate, 0, timeSource, DEFAULT_STRIPES, DEFAULT_SLOTS);
+    }
+
+    /**
+     * @param fallbackDenyMillis how long to remember a denial when the delegate cannot
+     *                           estimate it; 0 caches nothing for such delegates
+     * @param timeSource         the delegate's time source
+     * @param stripes            number of stripes; a power of two
+     * @param slotsPerStripe     denied keys remembered per stripe; a power of two
+     */
+    public DenyCachingRateLimiter(RateLimiter delegate, long fallbackDenyMillis, TimeSource timeSource,
+                                  int stripes, int slotsPerStripe) {
+        if (Integer.bitCount(stripes) != 1 || Integer.bitCount(slotsPerStripe) != 1) {
+            throw new IllegalArgumentException("Stripes and slots must be powers of two: "
+                    + stripes + ", " + slotsPerStripe);
+        }
+        if (Integer.numberOfTrailingZeros(stripes) + Integer.numberOfTrailingZeros(slotsPerStripe) > 30) {
+            throw new IllegalArgumentException("At most 2^30 slots in all: " + stripes + " x " + slotsPerStripe);
+        }
+        if (fallbackDenyMillis < 0) {
+            throw new IllegalArgumentException("Fallback deny time must not be negative.");
+        }
+        this.delegate = delegate;
+        this.retryAfter = delegate instanceof RetryAfterRateLimiter r ? r : null;
+        this.fallbackDenyMillis = fallbackDenyMillis;
+        this.timeSource = timeSource;
+        this.stripes = new Denial[stripes][slotsPerStripe];
+        this.stripeMask = stripes - 1;
+        this.slotBits = Integer.numberOfTrailingZeros(slotsPerStripe);
+        this.slotMask = slotsPerStripe - 1;
+    }
+
+    @Override
+    public boolean allowRequest(String userId) {
+        long currentTime = timeSource.millis();
+        int hash = spread(userId.hashCode());
+        if (isDenied(hash, userId, currentTime)) {
+            cachedDenials.increment();
+            return false;
+        }
+
+        boolean allowed = delegate.allowRequest(userId);
+        if (!allowed) {
+            remember(hash, userId, currentTime);
+        }
+        return allowed;
+    }
+
+    @Override
+    public void allowRequests(String[] userIds, boolean[] out) {
+        KeyBatch.checkLengths(userIds, out);
+        long currentTime = timeSource.millis();
+
+        // Only the keys not known to be denied go to the delegate, still as one batch
+        int misses = 0;
+        for (int i = 0; i < userIds.length; i++) {
+            if (!isDenied(spread(userIds[i].hashCode()), userIds[i], currentTime)) {
+                misses++;
+            }
+        }
+        if (misses == 0) {
+            Arrays.fill(out, 0, userIds.length, false);
+            cachedDenials.add(userIds.length);
+            return;
+        }
+        int[] missIndex = new int[misses];
+        String[] missKeys = new String[misses];
+        for (int i = 0, m = 0; i < userIds.length; i++) {
+            if (isDenied(spread(userIds[i].hashCode()), userIds[i], currentTime)) {
+                out[i] = false;
+            } else {
+                missIndex[m] = i;
+                missKeys[m++] = userIds[i];
+            }
+        }
+        cachedDenials.add(userIds.length - misses);
+
+        boolean[] decided = new boolean[misses];
+        delegate.allowRequests(missKeys, decided);
+        for (int m = 0; m < misses; m++) {
+            out[missIndex[m]] = decided[m];
+            if (!decided[m]) {
+                remember(spread(missKeys[m].hashCode()), missKeys[m], currentTime);
+            }
+        }
+    }
+
+    /**
+     * @return how many requests were denied from the cache without asking the delegate
+     */
+    public long cachedDenials() {
+        return cachedDenials.sum();
+    }
+
+    // Low bits pick the slot, the bits above them the stripe
+    private Denial[] stripe(int hash) {
+        return stripes[(hash >>> slotBits) & stripeMask];
+    }
+
+    private boolean isDenied(int hash, String userId, long currentTime) {
+        Denial denial = (Denial) SLOTS.getOpaque(stripe(hash), hash & slotMask);
+        return denial != null && currentTime < denial.until && denial.key.equals(userId);
+    }
+
+    private void remember(int hash, String userId, long currentTime) {
+        long denyMillis = retryAfter != null ? retryAfter.retryAfterMillis(userId) : fallbackDenyMillis;
+        if (denyMillis > 0) {
+            SLOTS.setOpaque(stripe(hash), hash & slotMask, new Denial(userId, currentTime + denyMillis));
+        }
+    }
+
+    private static int spread(int h) {
+        return (h ^ (h >>> 16)) * 0x9E3779B9;
+    }
+}
@@ -0,0 +1,296 @@
+package org.example.ratelimiter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free fixed window limiter whose windows are aligned to the clock rather than to
+ * each user's first request.
+ * <p>
+ * Window {@code n} covers {@code [n * windowSizeMillis, (n + 1) * windowSizeMillis)} on
+ * the time source's timeline; with the default {@link TimeSource#system()} that is the
+ * Unix epoch, so every process and node agrees on where windows start and reset at the
+ * same instant. Each user's window is one {@code long} in an {@link AtomicLong}:
+ * <pre>
+ *   63                             countBits  countBits - 1      0
+ *  +----------------------------------------+--------------------+
+ *  | window index (windows since base, >= 1)|  permits granted   |
+ *  +----------------------------------------+--------------------+
+ * </pre>
+ * {@code countBits} is just wide enough for {@code maxRequests}. A decision is one CAS:
+ * a word from an earlier window is replaced by the current window with a fresh count
+ * (the lazy reset), otherwise the count grows. A denial writes nothing, so the count
+ * never passes {@code maxRequests}, cannot overflow into the window index, and a hot
+ * abusive key does not keep bouncing the cache line.
+ * <p>
+ * Unlike {@link FixedWindowRL}, a user who first shows up late in a window only gets the
+ * rest of that window. A clock that steps backwards keeps counting into the newest
+ * window seen, rather than opening a fresh one.
+ * <p>
+ * Built with {@code maxLongKeys > 0}, {@link #allowRequest(long)} keeps the words inline
+ * in a {@link LongStateTable}, where the slot of a window that has ended is reused by the
+ * next new id.
+ */
+public class EpochFixedWindow implements RefundableRateLimiter, WeightedRateLimiter, RetryAfterRateLimiter,
+        LongKeyedRateLimiter {
+    // Never a valid state: window offsets stay far below 2^(64 - countBits) - 1
+    private static final long EVICTED = -1L;
+    private static final long MIN_RANGE_MILLIS = TimeUnit.DAYS.toMillis(30 * 365);
+
+    private final long maxRequests;
+    private final long windowSizeMillis;
+    private final int countBits;
+    private final long countMask;
+    private final long baseWindow;       // offsets are counted from here; offset 0 is never used
+    private final long maxWindowOffset;
+    private final TimeSource timeSource;
+
+    private final Map<String, AtomicLong> userWindows = new ConcurrentHashMap<>();
+    private final ExpiryWheel expiryWheel = ExpiryWheel.shared();
+    private final LongStateTable longKeyWindows;
+
+    public EpochFixedWindow(long maxRequests, long windowSizeMillis) {
+        this(maxRequests, windowSizeMillis, TimeSource.system());
+    }
+
+    public EpochFixedWindow(long maxRequests, long windowSizeMillis, TimeSource timeSource) {
+        this(maxRequests, windowSizeMillis, timeSource, 0);
+    }
+
+    /**
+     * @param maxLongKeys how many ids {@link #allowRequest(long)} must hold active at once; 0 disables it
+     */
+    public EpochFixedWindow(long maxRequests, long windowSizeMillis, TimeSource timeSource, int maxLongKeys) {
+        if (maxRequests <= 0) {
+            throw new IllegalArgumentException("Max requests must be greater than zero.");
+        }
+        if (windowSizeMillis <= 0) {
+            throw new IllegalArgumentException("Window size must be greater than zero.");
+        }
+        this.countBits = Long.SIZE - Long.numberOfLeadingZeros(maxRequests);
+        this.countMask = (1L << countBits) - 1;
+        this.maxWindowOffset = (1L << (Long.SIZE - countBits - 1)) - 1; // keeps packed words positive
+        if (maxWindowOffset < MIN_RANGE_MILLIS / windowSizeMillis) {
+            throw new IllegalArgumentException("Max requests too large for " + windowSizeMillis
+                    + "ms windows: the window index would run out within 30 years");
+        }
+        this.maxRequests = maxRequests;
+        this.windowSizeMillis = windowSizeMillis;
+        this.timeSource = timeSource;
+        // An all-zero word means "no window yet" in the long key table, so offsets start at 1
+        this.baseWindow = Math.floorDiv(timeSource.millis(), windowSizeMillis) - 1;
+        this.longKeyWindows = maxLongKeys > 0
+                ? new LongStateTable(maxLongKeys, state -> windowOf(state) < currentWindow())
+                : null;
+    }
+
+    @Override
+    public boolean allowRequest(String userId) {
+        return grant(userId) != DENIED;
+    }
+
+    // The grant is named by the window it was counted in
+    @Override
+    public long grant(String userId) {
+        long window = currentWindow();
+        AtomicLong state = lookup(userId, window);
+
+        while (true) {
+            long current = state.get();
+            if (current == EVICTED) {
+                userWindows.remove(userId, state);
+                state = lookup(userId, window);
+                continue;
+            }
+            if (grantable(current, window, 1, 1) == 0) {
+                return DENIED;
+            }
+            long next = advanced(current, window, 1);
+            if (state.compareAndSet(current, next)) {
+                return windowOf(next);
+            }
+        }
+    }
+
+    @Override
+    public boolean allowRequest(String userId, int permits) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("Permits must be at least 1: " + permits);
+        }
+        return acquire(userId, permits, permits, currentWindow()) == permits;
+    }
+
+    @Override
+    public void allowRequests(String[] userIds, boolean[] out) {
+        long window = currentWindow();
+        KeyBatch batch = KeyBatch.group(userIds, out);
+
+        for (int i = 0; i < userIds.length; i++) {
+            if (batch.isDuplicate(i)) {
+                continue;
+            }
+            // One CAS for all occurrences: the first 'granted' of them are allowed, as they would be one by one
+            long granted = acquire(userIds[i], batch.count(i), 1, window);
+            for (int j = i; j >= 0; j = batch.next(j)) {
+                out[j] = granted-- > 0;
+            }
+        }
+    }
+
+    @Override
+    public boolean allowRequest(long key) {
+        if (longKeyWindows == null) {
+            throw new UnsupportedOperationException("Built without a long key table (maxLongKeys = 0).");
+        }
+        long window = currentWindow();
+        int slot = longKeyWindows.slot(key);
+
+        while (true) {
+            if (slot < 0) {
+                return false;
+            }
+            long current = longKeyWindows.get(slot, key);
+            if (current == LongStateTable.MOVED) {
+                slot = longKeyWindows.slot(key);
+                continue;
+            }
+            long granted = grantable(current, window, 1, 1);
+            if (granted == 0) {
+                return false;
+            }
+            if (longKeyWindows.compareAndSet(slot, current, advanced(current, window, granted))) {
+                return true;
+            }
+        }
+    }
+
+    // Only into the grant's own window, and only while that window is still running
+    @Override
+    public void refund(String userId, long grant) {
+        AtomicLong state = userWindows.get(userId);
+        if (state == null) {
+            return;
+        }
+        long window = currentWindow();
+        while (true) {
+            long current = state.get();
+            if (current == EVICTED || windowOf(current) != grant || grant < window || countOf(current) == 0) {
+                return; // the permit belonged to a window that is over
+            }
+            if (state.compareAndSet(current, current - 1)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public long retryAfterMillis(String userId) {
+        AtomicLong state = userWindows.get(userId);
+        if (state == null) {
+            return 0;
+        }
+        long current = state.get();
+        if (current == EVICTED || windowOf(current) < currentWindow() || countOf(current) < maxRequests) {
+            return 0;
+        }
+        return millisUntilWindowEnds(windowOf(current));
+    }
+
+    /**
+     * Takes up to {@code wanted} permits, or none if fewer than {@code minimum} are left, in one CAS.
+     *
+     * @return the number of permits taken
+     */
+    private long acquire(String userId, long wanted, long minimum, long window) {
+        AtomicLong state = lookup(userId, window);
+
+        while (true) {
+            long current = state.get();
+            if (current == EVICTED) {
+                // Reaped after our lookup; help unlink it and retry on the fresh window
+                userWindows.remove(userId, state);
+                state = lookup(userId, window);
+                continue;
+            }
+            long granted = grantable(current, window, wanted, minimum);
+            if (granted == 0) {
+                // Deny without writing
+                return 0;
+            }
+            if (state.compareAndSet(current, advanced(current, window, granted))) {
+                return granted;
+            }
+        }
+    }
+
+    // Permits the state can grant now: 0 if fewer than 'minimum' are left
+    private long grantable(long current, long window, long wanted, long minimum) {
+        long used = current == 0 || windowOf(current) < window ? 0 : countOf(current);
+        long granted = Math.min(wanted, maxRequests - used);
+        return granted < minimum ? 0 : granted;
+    }
+
+    // The state after granting 'granted' permits; an earlier window is reset first
+    private long advanced(long current, long window, long granted) {
+        if (current == 0 || windowOf(current) < window) {
+            return pack(window, granted);
+        }
+        return current + granted;
+    }
+
+    private AtomicLong lookup(String userId, long window) {
+        AtomicLong state = userWindows.get(userId);
+        if (state == null) {
+            // Only new users pay for the capturing lambda
+            state = userWindows.computeIfAbsent(userId, k -> track(k, new AtomicLong(pack(window, 0))));
+        }
+        return state;
+    }
+
+    private AtomicLong track(String userId, AtomicLong state) {
+        expiryWheel.schedule(millisUntilWindowEnds(windowOf(state.get())), () -> expire(userId, state));
+        return state;
+    }
+
+    // Once its window has ended the word behaves exactly like the one a new user gets
+    private long expire(String userId, AtomicLong state) {
+        while (true) {
+            long current = state.get();
+            long window = windowOf(current);
+            if (window >= currentWindow()) {
+                return millisUntilWindowEnds(window);
+            }
+            if (state.compareAndSet(current, EVICTED)) {
+                userWindows.remove(userId, state);
+                return 0;
+            }
+        }
+    }
+
+    private long millisUntilWindowEnds(long window) {
+        long end = (baseWindow + window + 1) * windowSizeMillis;
+        return Math.max(1, end - timeSource.millis());
+    }
+
+    private long currentWindow() {
+        long offset = Math.floorDiv(timeSource.millis(), windowSizeMillis) - baseWindow;
+        if (offset < 1) {
+            return 1;
+        }
+        return Math.min(offset, maxWindowOffset);
+    }
+
+    private long pack(long window, long count) {
+        return (window << countBits) | count;
+    }
+
+    private long countOf(long state) {
+        return state & countMask;
+    }
+
+    private long windowOf(long state) {
+        return state >>> countBits;
+    }
+}
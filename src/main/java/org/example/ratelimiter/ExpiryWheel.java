@@ -0,0 +1,174 @@
+package org.example.ratelimiter;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timing wheel that reaps idle per-key limiter state in the background.
+ * <p>
+ * Limiters register a key once, when its state is created. A single daemon thread
+ * advances the wheel every {@code tickMillis} while it holds any key, and parks while it
+ * is empty until the next {@link #schedule}. When a key's slot comes due it asks the
+ * limiter whether the state can still affect a decision. The limiter either removes the
+ * key (returns 0) or answers how long to wait before asking again, and the same entry is
+ * re-slotted without allocating. {@code allowRequest} therefore never touches the wheel
+ * except for one queue offer when a brand new key shows up.
+ * <p>
+ * Slots are only ever touched by the ticker thread; other threads hand entries over
+ * through a lock-free queue that is drained at the start of every tick.
+ */
+final class ExpiryWheel {
+
+    /**
+     * Expiry check for one key, run on the wheel thread.
+     */
+    interface Task {
+        /**
+         * @return 0 if the key's state was removed, otherwise the milliseconds to wait
+         * before checking the key again. A check that throws is reported and tried again
+         * after the previous delay, so the key is never silently left in its map.
+         */
+        long expire();
+    }
+
+    private static final class Entry {
+        final Task task;
+        long delayMillis;
+        long deadlineTick;
+        Entry next;
+
+        Entry(Task task, long delayMillis) {
+            this.task = task;
+            this.delayMillis = delayMillis;
+        }
+    }
+
+    private static final class Holder {
+        static final ExpiryWheel SHARED = new ExpiryWheel(100, 512);
+    }
+
+    private final long tickMillis;
+    private final Entry[] slots;
+    private final int mask;
+    private final Queue<Entry> pending = new ConcurrentLinkedQueue<>();
+    private final Thread ticker;
+    // Set while the ticker is parked on an empty wheel; schedule() then wakes it
+    private volatile boolean idle;
+
+    private long tick; // ticker thread only
+    private long size; // entries in the slots; ticker thread only
+
+    ExpiryWheel(long tickMillis, int wheelSize) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("Tick must be greater than zero.");
+        }
+        if (Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("Wheel size must be a power of two: " + wheelSize);
+        }
+        this.tickMillis = tickMillis;
+        this.slots = new Entry[wheelSize];
+        this.mask = wheelSize - 1;
+
+        this.ticker = new Thread(this::run, "ratelimiter-expiry");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    /**
+     * The wheel shared by all limiters; its thread is started on first use.
+     */
+    static ExpiryWheel shared() {
+        return Holder.SHARED;
+    }
+
+    /**
+     * Asks {@code task} to expire its key after roughly {@code delayMillis}, and again
+     * after whatever delay it returns until it reports the key removed.
+     */
+    void schedule(long delayMillis, Task task) {
+        pending.offer(new Entry(task, delayMillis));
+        if (idle) {
+            LockSupport.unpark(ticker);
+        }
+    }
+
+    private void run() {
+        long tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        long startNanos = System.nanoTime();
+
+        while (true) {
+            if (size == 0 && pending.isEmpty()) {
+                // Publish 'idle' before the last look at the queue: a schedule() that offers
+                // after that look is sure to see the flag and unpark us
+                idle = true;
+                while (pending.isEmpty()) {
+                    LockSupport.park(this);
+                }
+                idle = false;
+                // Resume ticking from now instead of catching up on the idle time
+                startNanos = System.nanoTime() - tick * tickNanos;
+            }
+            long sleepNanos = startNanos + (tick + 1) * tickNanos - System.nanoTime();
+            if (sleepNanos > 0) {
+                LockSupport.parkNanos(this, sleepNanos);
+                continue; // park may return early; re-check the deadline
+            }
+            tick++;
+            drainPending();
+            expireSlot((int) (tick & mask));
+        }
+    }
+
+    private void drainPending() {
+        Entry entry;
+        while ((entry = pending.poll()) != null) {
+            place(entry);
+            size++;
+        }
+    }
+
+    private void expireSlot(int index) {
+        Entry entry = slots[index];
+        slots[index] = null;
+
+        while (entry != null) {
+            Entry next = entry.next;
+            entry.next = null;
+
+            if (entry.deadlineTick > tick) {
+                // Not due yet, it is one or more revolutions away
+                link(index, entry);
+            } else {
+                long delay;
+                try {
+                    delay = entry.task.expire();
+                } catch (RuntimeException e) {
+                    // A failing check must not stop the wheel, nor leak its key; ask again later
+                    System.err.println("ExpiryWheel: expiry check failed, retrying in "
+                            + entry.delayMillis + "ms: " + e);
+                    delay = Math.max(1, entry.delayMillis);
+                }
+                if (delay > 0) {
+                    entry.delayMillis = delay;
+                    place(entry);
+                } else {
+                    size--;
+                }
+            }
+            entry = next;
+        }
+    }
+
+    private void place(Entry entry) {
+        long ticks = Math.max(1, (entry.delayMillis + tickMillis - 1) / tickMillis);
+        entry.deadlineTick = tick + ticks;
+        link((int) (entry.deadlineTick & mask), entry);
+    }
+
+    private void link(int index, Entry entry) {
+        entry.next = slots[index];
+        slots[index] = entry;
+    }
+}
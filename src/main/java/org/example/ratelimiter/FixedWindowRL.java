@@ -3,32 +3,233 @@ package org.example.ratelimiter;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
-public class FixedWindowRL implements RateLimiter {
+public class FixedWindowRL implements RefundableRateLimiter, WeightedRateLimiter, RetryAfterRateLimiter, SnapshotSupport {
+    static final int SNAPSHOT_KIND = 1;
+
     private final long maxRequests; // Bucket size
     private final long windowSizeMillis; // Window size
 
     private Map<String, UserWindow> userWindows = new ConcurrentHashMap<>();
+    private final ExpiryWheel expiryWheel = ExpiryWheel.shared();
+    private final TimeSource timeSource;
+    private volatile SnapshotIndex snapshot;
 
     public FixedWindowRL(long maxRequests, long windowSizeMillis) {
+        this(maxRequests, windowSizeMillis, TimeSource.monotonic());
+    }
+
+    public FixedWindowRL(long maxRequests, long windowSizeMillis, TimeSource timeSource) {
         this.maxRequests = maxRequests;
         this.windowSizeMillis = windowSizeMillis;
+        this.timeSource = timeSource;
     }
 
     @Override
     public boolean allowRequest(String userId) {
-        long currentTime = System.currentTimeMillis();
+        return grant(userId) != DENIED;
+    }
+
+    // The grant is named by its window's start time
+    @Override
+    public long grant(String userId) {
+        long currentTime = timeSource.millis();
+
+        while (true) {
+            UserWindow userWindow = lookup(userId, currentTime);
+
+            synchronized (userWindow) {
+                if (userWindow.evicted) {
+                    // Reaped between lookup and lock; pick up the fresh window
+                    continue;
+                }
+                return tryAcquire(userWindow, currentTime, 1) ? userWindow.windowStart : DENIED;
+            }
+        }
+    }
+
+    @Override
+    public boolean allowRequest(String userId, int permits) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("Permits must be at least 1: " + permits);
+        }
+        long currentTime = timeSource.millis();
+
+        while (true) {
+            UserWindow userWindow = lookup(userId, currentTime);
+
+            synchronized (userWindow) {
+                if (userWindow.evicted) {
+                    continue;
+                }
+                return tryAcquire(userWindow, currentTime, permits);
+            }
+        }
+    }
+
+    @Override
+    public void allowRequests(String[] userIds, boolean[] out) {
+        long currentTime = timeSource.millis();
+        KeyBatch batch = KeyBatch.group(userIds, out);
+
+        for (int i = 0; i < userIds.length; i++) {
+            if (batch.isDuplicate(i)) {
+                continue;
+            }
+            while (true) {
+                UserWindow userWindow = lookup(userIds[i], currentTime);
+
+                synchronized (userWindow) {
+                    if (userWindow.evicted) {
+                        continue;
+                    }
+                    for (int j = i; j >= 0; j = batch.next(j)) {
+                        out[j] = tryAcquire(userWindow, currentTime, 1);
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Windows start at each key's own first request, so "the current window" at refund
+     * time may be one a later request opened after the grant. The refund therefore only
+     * applies while the window the grant names is still the key's window.
+     */
+    @Override
+    public void refund(String userId, long grant) {
+        UserWindow userWindow = userWindows.get(userId);
+        if (userWindow == null) {
+            return;
+        }
+        synchronized (userWindow) {
+            if (userWindow.evicted || userWindow.windowStart != grant
+                    || timeSource.millis() - userWindow.windowStart >= windowSizeMillis) {
+                return; // the permit belonged to a window that is over
+            }
+            // Snapshots from before denials stopped being counted may hold a count past maxRequests
+            int granted = (int) Math.min(userWindow.count.get(), maxRequests);
+            userWindow.count.set(Math.max(0, granted - 1));
+        }
+    }
 
-        UserWindow userWindow = userWindows.computeIfAbsent(userId, k -> new UserWindow(currentTime));
+    @Override
+    public long retryAfterMillis(String userId) {
+        UserWindow userWindow = userWindows.get(userId);
+        if (userWindow == null) {
+            return 0;
+        }
+        synchronized (userWindow) {
+            long remaining = userWindow.windowStart + windowSizeMillis - timeSource.millis();
+            if (userWindow.evicted || remaining <= 0 || userWindow.count.get() < maxRequests) {
+                return 0;
+            }
+            return remaining;
+        }
+    }
+
+    @Override
+    public int snapshotKind() {
+        return SNAPSHOT_KIND;
+    }
+
+    @Override
+    public TimeSource timeSource() {
+        return timeSource;
+    }
+
+    // Entry: window start, count
+    @Override
+    public void forEachSnapshotEntry(EntrySink sink) {
+        SnapshotIndex restoring = snapshot;
+        if (restoring != null) {
+            restoring.forEachRemaining((userId, windowStart, count) ->
+                    sink.accept(userId, windowStart + restoring.timeShift(), count));
+        }
+        userWindows.forEach((userId, userWindow) -> {
+            long windowStart;
+            int count;
+            synchronized (userWindow) {
+                if (userWindow.evicted) {
+                    return;
+                }
+                windowStart = userWindow.windowStart;
+                count = userWindow.count.get();
+            }
+            sink.accept(userId, windowStart, count);
+        });
+    }
+
+    // Every stored window started before the restore, so all have ended one window later
+    @Override
+    public synchronized void restoreFrom(SnapshotIndex restoring) {
+        if (snapshot != null) {
+            throw new IllegalStateException("A snapshot is still being restored.");
+        }
+        snapshot = restoring;
+        expiryWheel.schedule(windowSizeMillis, () -> {
+            synchronized (this) {
+                if (snapshot == restoring) {
+                    snapshot = null;
+                }
+            }
+            return 0;
+        });
+    }
+
+    private UserWindow lookup(String userId, long currentTime) {
+        UserWindow userWindow = userWindows.get(userId);
+        if (userWindow == null) {
+            // Only new users pay for the capturing lambda
+            userWindow = userWindows.computeIfAbsent(userId, k -> track(k, newWindow(k, currentTime)));
+        }
+        return userWindow;
+    }
+
+    // A user's first request picks up the window a snapshot being restored holds for it
+    private UserWindow newWindow(String userId, long currentTime) {
+        UserWindow userWindow = new UserWindow(currentTime);
+        SnapshotIndex restoring = snapshot;
+        if (restoring != null) {
+            restoring.take(userId, (key, windowStart, count) -> {
+                // A window that ended during the downtime is replaced by the first request anyway
+                userWindow.windowStart = windowStart + restoring.timeShift();
+                userWindow.count.set((int) count);
+            });
+        }
+        return userWindow;
+    }
+
+    // Caller holds the window's lock
+    private boolean tryAcquire(UserWindow userWindow, long currentTime, int permits) {
+        if(currentTime - userWindow.windowStart >= windowSizeMillis) {
+            userWindow.count.set(0);
+            userWindow.windowStart = currentTime;
+        }
+        // Denials leave the count alone, so a denied heavy request does not use up the window
+        int currentCount = userWindow.count.get();
+        if (currentCount + (long) permits > maxRequests) {
+            return false;
+        }
+        userWindow.count.set(currentCount + permits);
+        return true;
+    }
+
+    private UserWindow track(String userId, UserWindow userWindow) {
+        expiryWheel.schedule(windowSizeMillis, () -> expire(userId, userWindow));
+        return userWindow;
+    }
 
+    // Once the window has elapsed the next request starts a new one, exactly as for an unknown user
+    private long expire(String userId, UserWindow userWindow) {
         synchronized (userWindow) {
-            if(currentTime - userWindow.windowStart >= windowSizeMillis) {
-                userWindow.count.set(1);
-                userWindow.windowStart = currentTime;
-                return true;
-            }else{
-                int currentCount = userWindow.count.incrementAndGet();
-                return currentCount <= maxRequests;
+            long remaining = userWindow.windowStart + windowSizeMillis - timeSource.millis();
+            if (remaining > 0) {
+                return remaining;
             }
+            userWindow.evicted = true;
+            userWindows.remove(userId, userWindow);
+            return 0;
         }
     }
 }
@@ -0,0 +1,249 @@
+package org.example.ratelimiter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timestamp-based leaky bucket, implemented as the Generic Cell Rate Algorithm.
+ * <p>
+ * Instead of a queue of timestamps ({@link LeakyBucket}), each user keeps one number: the
+ * theoretical arrival time (TAT), the instant the bucket would be empty again if no more
+ * requests came. With emission interval {@code T = 1s / rate} and burst tolerance
+ * {@code tau = (burstCapacity - 1) * T}, a request at {@code now} is accepted when
+ * <pre>
+ *   max(TAT, now) - now &lt;= tau     and then   TAT = max(TAT, now) + T
+ * </pre>
+ * so a full burst is accepted at once and after that one request per {@code T}; the
+ * bucket drains continuously rather than one entry per interval after the oldest one.
+ * <p>
+ * The TAT is kept in nanoseconds since construction, read from {@link TimeSource#nanos()},
+ * and updated with one CAS; denials do not write. {@code T} is truncated to whole
+ * nanoseconds (rate 3 gives 333,333,333ns), so a rate that does not divide 10^9 runs a
+ * hair fast, and rates above 10^9 per second are rejected. On a source that only ticks
+ * in milliseconds, such as {@link CachedTimeSource}, at most {@code burstCapacity}
+ * requests fit in each tick, so the rate reached is at most {@code burstCapacity * 1000}
+ * per second. Built with
+ * {@code maxLongKeys > 0}, numeric ids keep their TAT inline in a {@link LongStateTable},
+ * where the slot of a drained bucket is reused by the next new id.
+ */
+public class GcraLeakyBucket implements ReservingRateLimiter, RefundableRateLimiter, RetryAfterRateLimiter,
+        LongKeyedRateLimiter {
+    // Never a valid TAT: offsets are positive
+    private static final long EVICTED = -1L;
+
+    private final long emissionIntervalNanos;  // T
+    private final long burstToleranceNanos;    // tau
+    private final long baseNanos;               // offsets are measured from here; offset 0 is never used
+    private final TimeSource timeSource;
+
+    private final Map<String, AtomicLong> userBuckets = new ConcurrentHashMap<>();
+    private final ExpiryWheel expiryWheel = ExpiryWheel.shared();
+    private final LongStateTable longKeyBuckets;
+
+    public GcraLeakyBucket(int maxRatePerSecond, int burstCapacity) {
+        this(maxRatePerSecond, burstCapacity, TimeSource.monotonic());
+    }
+
+    public GcraLeakyBucket(int maxRatePerSecond, int burstCapacity, TimeSource timeSource) {
+        this(maxRatePerSecond, burstCapacity, timeSource, 0);
+    }
+
+    /**
+     * @param maxLongKeys how many ids {@link #allowRequest(long)} must hold active at once; 0 disables it
+     */
+    public GcraLeakyBucket(int maxRatePerSecond, int burstCapacity, TimeSource timeSource, int maxLongKeys) {
+        if (maxRatePerSecond <= 0) {
+            throw new IllegalArgumentException("Rate must be greater than zero.");
+        }
+        if (burstCapacity <= 0) {
+            throw new IllegalArgumentException("Burst capacity must be greater than zero.");
+        }
+        if (maxRatePerSecond > TimeUnit.SECONDS.toNanos(1)) {
+            throw new IllegalArgumentException("Rate must be at most one per nanosecond: " + maxRatePerSecond);
+        }
+        this.emissionIntervalNanos = TimeUnit.SECONDS.toNanos(1) / maxRatePerSecond;
+        this.burstToleranceNanos = (burstCapacity - 1) * emissionIntervalNanos;
+        this.timeSource = timeSource;
+        // An all-zero word means "no bucket yet" in the long key table, so offsets start at 1
+        this.baseNanos = timeSource.nanos() - 1;
+        this.longKeyBuckets = maxLongKeys > 0 ? new LongStateTable(maxLongKeys, tat -> tat <= nowNanos()) : null;
+    }
+
+    @Override
+    public boolean allowRequest(String userId) {
+        return acquireUpTo(userId, 1, nowNanos()) == 1;
+    }
+
+    @Override
+    public void allowRequests(String[] userIds, boolean[] out) {
+        long now = nowNanos();
+        KeyBatch batch = KeyBatch.group(userIds, out);
+
+        for (int i = 0; i < userIds.length; i++) {
+            if (batch.isDuplicate(i)) {
+                continue;
+            }
+            // One CAS for all occurrences: the first 'granted' of them are allowed, as they would be one by one
+            long granted = acquireUpTo(userIds[i], batch.count(i), now);
+            for (int j = i; j >= 0; j = batch.next(j)) {
+                out[j] = granted-- > 0;
+            }
+        }
+    }
+
+    @Override
+    public boolean allowRequest(long key) {
+        if (longKeyBuckets == null) {
+            throw new UnsupportedOperationException("Built without a long key table (maxLongKeys = 0).");
+        }
+        long now = nowNanos();
+        int slot = longKeyBuckets.slot(key);
+
+        while (true) {
+            if (slot < 0) {
+                return false;
+            }
+            long tat = longKeyBuckets.get(slot, key);
+            if (tat == LongStateTable.MOVED) {
+                slot = longKeyBuckets.slot(key);
+                continue;
+            }
+            if (conforming(tat, now, 1) == 0) {
+                return false;
+            }
+            if (longKeyBuckets.compareAndSet(slot, tat, Math.max(tat, now) + emissionIntervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public long reserve(String userId, long maxWaitMillis) {
+        long now = nowNanos();
+        AtomicLong bucket = lookup(userId);
+
+        while (true) {
+            long tat = bucket.get();
+            if (tat == EVICTED) {
+                userBuckets.remove(userId, bucket);
+                bucket = lookup(userId);
+                continue;
+            }
+            // The request conforms once the backlog has drained down to the burst tolerance
+            long start = Math.max(tat, now);
+            long waitNanos = Math.max(0, start - now - burstToleranceNanos);
+            long waitMillis = (waitNanos + 999_999) / 1_000_000;
+            if (waitMillis > maxWaitMillis) {
+                return -1;
+            }
+            if (bucket.compareAndSet(tat, start + emissionIntervalNanos)) {
+                return waitMillis;
+            }
+        }
+    }
+
+    // Moves the TAT back by one emission interval, never below now
+    @Override
+    public void refund(String userId, long grant) {
+        AtomicLong bucket = userBuckets.get(userId);
+        if (bucket == null) {
+            return;
+        }
+        long now = nowNanos();
+        while (true) {
+            long tat = bucket.get();
+            if (tat == EVICTED || tat <= now) {
+                return; // already empty
+            }
+            if (bucket.compareAndSet(tat, Math.max(now, tat - emissionIntervalNanos))) {
+                return;
+            }
+        }
+    }
+
+    // A request conforms once the backlog has drained down to the burst tolerance
+    @Override
+    public long retryAfterMillis(String userId) {
+        AtomicLong bucket = userBuckets.get(userId);
+        if (bucket == null) {
+            return 0;
+        }
+        long tat = bucket.get();
+        long now = nowNanos();
+        if (tat == EVICTED) {
+            return 0;
+        }
+        long waitNanos = Math.max(tat, now) - now - burstToleranceNanos;
+        return waitNanos <= 0 ? 0 : (waitNanos + 999_999) / 1_000_000;
+    }
+
+    /**
+     * Admits as many of {@code wanted} requests as conform, with one CAS on the TAT.
+     *
+     * @return the number of requests admitted
+     */
+    private long acquireUpTo(String userId, long wanted, long now) {
+        AtomicLong bucket = lookup(userId);
+
+        while (true) {
+            long tat = bucket.get();
+            if (tat == EVICTED) {
+                // Reaped after our lookup; help unlink it and retry on the fresh bucket
+                userBuckets.remove(userId, bucket);
+                bucket = lookup(userId);
+                continue;
+            }
+            long granted = conforming(tat, now, wanted);
+            if (granted == 0) {
+                return 0;
+            }
+            if (bucket.compareAndSet(tat, Math.max(tat, now) + granted * emissionIntervalNanos)) {
+                return granted;
+            }
+        }
+    }
+
+    // How many of 'wanted' back-to-back requests at 'now' stay within the burst tolerance
+    private long conforming(long tat, long now, long wanted) {
+        long backlog = Math.max(tat, now) - now;
+        if (backlog > burstToleranceNanos) {
+            return 0;
+        }
+        return Math.min(wanted, (burstToleranceNanos - backlog) / emissionIntervalNanos + 1);
+    }
+
+    private AtomicLong lookup(String userId) {
+        AtomicLong bucket = userBuckets.get(userId);
+        if (bucket == null) {
+            // Only new users pay for the capturing lambda; a TAT of 0 is "empty bucket"
+            bucket = userBuckets.computeIfAbsent(userId, k -> track(k, new AtomicLong()));
+        }
+        return bucket;
+    }
+
+    private AtomicLong track(String userId, AtomicLong bucket) {
+        expiryWheel.schedule(TimeUnit.NANOSECONDS.toMillis(emissionIntervalNanos) + 1, () -> expire(userId, bucket));
+        return bucket;
+    }
+
+    // Once the TAT is in the past the bucket is empty, same as for an unknown user
+    private long expire(String userId, AtomicLong bucket) {
+        long now = nowNanos();
+        while (true) {
+            long tat = bucket.get();
+            if (tat > now) {
+                return TimeUnit.NANOSECONDS.toMillis(tat - now) + 1;
+            }
+            if (bucket.compareAndSet(tat, EVICTED)) {
+                userBuckets.remove(userId, bucket);
+                return 0;
+            }
+        }
+    }
+
+    private long nowNanos() {
+        return Math.max(1, timeSource.nanos() - baseNanos);
+    }
+}
@@ -0,0 +1,76 @@
+package org.example.ratelimiter;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Enforces an ordered chain of limits, such as per user, per tenant and global, in one call.
+ * <p>
+ * A request is allowed only if every tier allows it. Tiers are tried in order; when one
+ * denies, the tiers before it are refunded, so a denied request consumes nothing in any
+ * tier. Each tier takes and releases its own lock before the next is tried, so no two
+ * locks are ever held at once and tiers cannot deadlock with each other or with direct
+ * callers of the same limiters.
+ * <p>
+ * Order the tiers so that most denials happen early: the tier that denies most often
+ * (usually the per-user one), or the cheapest one, goes first. A request denied by the
+ * first tier then costs one lookup and no refunds.
+ * <p>
+ * Between a tier's grant and its refund, a concurrent request may see that permit as
+ * taken and be denied. The chain can therefore under-admit slightly under contention,
+ * but it never over-admits.
+ */
+public class HierarchicalRateLimiter implements RateLimiter {
+
+    /**
+     * One level of the chain: a limiter and how a request's id maps to that limiter's key.
+     * {@code keyOf} is called again for refunds, so it must be cheap and deterministic.
+     */
+    public record Tier(String name, RefundableRateLimiter limiter, Function<String, String> keyOf) {
+
+        /**
+         * A tier keyed by the request's id itself.
+         */
+        public static Tier perKey(String name, RefundableRateLimiter limiter) {
+            return new Tier(name, limiter, Function.identity());
+        }
+
+        /**
+         * A tier where all requests share one key.
+         */
+        public static Tier global(String name, RefundableRateLimiter limiter) {
+            return new Tier(name, limiter, userId -> name);
+        }
+    }
+
+    private final Tier[] tiers;
+
+    public HierarchicalRateLimiter(List<Tier> tiers) {
+        if (tiers.isEmpty()) {
+            throw new IllegalArgumentException("At least one tier is required.");
+        }
+        this.tiers = tiers.toArray(new Tier[0]);
+    }
+
+    @Override
+    public boolean allowRequest(String userId) {
+        long[] grants = new long[tiers.length];
+        for (int i = 0; i < tiers.length; i++) {
+            Tier tier = tiers[i];
+            grants[i] = tier.limiter().grant(tier.keyOf().apply(userId));
+            if (grants[i] == RefundableRateLimiter.DENIED) {
+                refund(userId, grants, i);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Gives back the permits taken by tiers [0, deniedAt)
+    private void refund(String userId, long[] grants, int deniedAt) {
+        for (int i = deniedAt - 1; i >= 0; i--) {
+            Tier tier = tiers[i];
+            tier.limiter().refund(tier.keyOf().apply(userId), grants[i]);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.example.ratelimiter;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves {@link RateLimiter} decisions over HTTP with the JDK's built-in server, every
+ * exchange on its own virtual thread.
+ * <pre>
+ *   GET  /allow?key=&lt;key&gt;          200 "1" if allowed, 429 "0" if denied
+ *   POST /allow  (one key per line)  200, one "1" or "0" line per key, decided as one batch
+ * </pre>
+ * HTTP is for callers that want zero client code; at high rates use the batched
+ * {@link BinaryDecisionServer}, which spends far less per decision on framing.
+ * <p>
+ * A {@link ConcurrencyLimiter} is refused: the protocol has no way to release a slot,
+ * so every key would be denied for good once its slots were taken.
+ */
+public final class HttpDecisionServer implements AutoCloseable {
+    private static final byte[] ALLOWED = {'1'};
+    private static final byte[] DENIED = {'0'};
+
+    private final RateLimiter limiter;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public HttpDecisionServer(InetSocketAddress address, RateLimiter limiter) throws IOException {
+        if (limiter instanceof ConcurrencyLimiter) {
+            throw new IllegalArgumentException("A concurrency limiter cannot be served: there is no release call.");
+        }
+        this.limiter = limiter;
+        this.server = HttpServer.create(address, 1024);
+        server.createContext("/allow", this::handleAllow);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handleAllow(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            switch (exchange.getRequestMethod()) {
+                case "GET": {
+                    String key = queryParameter(exchange.getRequestURI().getRawQuery(), "key");
+                    if (key == null) {
+                        respond(exchange, 400, "missing key parameter\n".getBytes(StandardCharsets.UTF_8));
+                        return;
+                    }
+                    boolean allowed = limiter.allowRequest(key);
+                    respond(exchange, allowed ? 200 : 429, allowed ? ALLOWED : DENIED);
+                    return;
+                }
+                case "POST": {
+                    String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+                    String[] keys = body.lines().filter(line -> !line.isEmpty()).toArray(String[]::new);
+                    boolean[] decisions = new boolean[keys.length];
+                    limiter.allowRequests(keys, decisions);
+                    byte[] response = new byte[2 * keys.length];
+                    for (int i = 0; i < keys.length; i++) {
+                        response[2 * i] = (byte) (decisions[i] ? '1' : '0');
+                        response[2 * i + 1] = '\n';
+                    }
+                    respond(exchange, 200, response);
+                    return;
+                }
+                default:
+                    exchange.getResponseHeaders().set("Allow", "GET, POST");
+                    respond(exchange, 405, new byte[0]);
+            }
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    private static String queryParameter(String rawQuery, String name) {
+        if (rawQuery == null) {
+            return null;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && pair.substring(0, eq).equals(name)) {
+                return URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+}
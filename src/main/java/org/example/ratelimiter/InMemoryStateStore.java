@@ -0,0 +1,73 @@
+package org.example.ratelimiter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link RateLimitStateStore} held in this process. Counters are dropped by the shared
+ * {@link ExpiryWheel} once their TTL has passed.
+ */
+public class InMemoryStateStore implements RateLimitStateStore {
+
+    private static final class StoreCounter {
+        long windowIndex;
+        long granted;
+        long expiresAt;
+        boolean evicted;
+
+        StoreCounter(long windowIndex) {
+            this.windowIndex = windowIndex;
+        }
+    }
+
+    private final Map<String, StoreCounter> counters = new ConcurrentHashMap<>();
+    private final ExpiryWheel expiryWheel = ExpiryWheel.shared();
+    private final TimeSource timeSource = TimeSource.monotonic();
+
+    @Override
+    public long acquire(String key, long windowIndex, long requested, long limit, long ttlMillis) {
+        long now = timeSource.millis();
+
+        while (true) {
+            StoreCounter counter = counters.get(key);
+            if (counter == null) {
+                counter = counters.computeIfAbsent(key, k -> track(k, new StoreCounter(windowIndex), ttlMillis));
+            }
+
+            synchronized (counter) {
+                if (counter.evicted) {
+                    continue;
+                }
+                if (windowIndex > counter.windowIndex) {
+                    counter.windowIndex = windowIndex;
+                    counter.granted = 0;
+                } else if (windowIndex < counter.windowIndex) {
+                    // A caller still in a window the store has moved past gets nothing more from it
+                    return 0;
+                }
+                counter.expiresAt = Math.max(counter.expiresAt, now + ttlMillis);
+
+                long granted = Math.max(0, Math.min(requested, limit - counter.granted));
+                counter.granted += granted;
+                return granted;
+            }
+        }
+    }
+
+    private StoreCounter track(String key, StoreCounter counter, long ttlMillis) {
+        expiryWheel.schedule(ttlMillis, () -> expire(key, counter));
+        return counter;
+    }
+
+    private long expire(String key, StoreCounter counter) {
+        synchronized (counter) {
+            long remaining = counter.expiresAt - timeSource.millis();
+            if (remaining > 0) {
+                return remaining;
+            }
+            counter.evicted = true;
+            counters.remove(key, counter);
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.example.ratelimiter;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in metrics around any {@link RateLimiter}. Limiters that are not wrapped run
+ * exactly the code they ran before.
+ * <p>
+ * Per decision the wrapper adds one striped {@link LongAdder} increment. One call (or
+ * batch) in {@code sampleInterval} is also timed into a {@link LatencyHistogram}, and one
+ * denial in {@code sampleInterval} feeds a bounded, thread-striped {@link TopKeys}
+ * tracker with a weight of {@code sampleInterval}, so a flood of denials for an abusive
+ * key mostly costs a random draw. {@link #snapshot()} is cheap enough to poll every few
+ * seconds.
+ */
+public class InstrumentedRateLimiter implements RateLimiter {
+    private final String name;
+    private final RateLimiter delegate;
+    private final int sampleInterval;
+    private final int sampleMask;
+
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder denied = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final TopKeys topDenied;
+
+    public InstrumentedRateLimiter(String name, RateLimiter delegate) {
+        this(name, delegate, 64, 16);
+    }
+
+    /**
+     * @param sampleInterval time one call in this many, and count one denial in this many
+     *                       towards the top keys; a power of two
+     * @param topDeniedKeys  how many of the most denied keys to track
+     */
+    public InstrumentedRateLimiter(String name, RateLimiter delegate, int sampleInterval, int topDeniedKeys) {
+        if (Integer.bitCount(sampleInterval) != 1) {
+            throw new IllegalArgumentException("Sample interval must be a power of two: " + sampleInterval);
+        }
+        this.name = name;
+        this.delegate = delegate;
+        this.sampleInterval = sampleInterval;
+        this.sampleMask = sampleInterval - 1;
+        this.topDenied = new TopKeys(topDeniedKeys);
+    }
+
+    @Override
+    public boolean allowRequest(String userId) {
+        boolean result;
+        if (isSampled()) {
+            long start = System.nanoTime();
+            result = delegate.allowRequest(userId);
+            latency.record(System.nanoTime() - start);
+        } else {
+            result = delegate.allowRequest(userId);
+        }
+        record(userId, result);
+        return result;
+    }
+
+    // A sampled batch records its time per decision, so batched and single calls share one histogram
+    @Override
+    public void allowRequests(String[] userIds, boolean[] out) {
+        if (userIds.length > 0 && isSampled()) {
+            long start = System.nanoTime();
+            delegate.allowRequests(userIds, out);
+            latency.record((System.nanoTime() - start) / userIds.length);
+        } else {
+            delegate.allowRequests(userIds, out);
+        }
+        for (int i = 0; i < userIds.length; i++) {
+            record(userIds[i], out[i]);
+        }
+    }
+
+    public MetricsSnapshot snapshot() {
+        long[] counts = latency.copyCounts();
+        return new MetricsSnapshot(name,
+                allowed.sum(),
+                denied.sum(),
+                LatencyHistogram.totalCount(counts),
+                LatencyHistogram.valueAtPercentile(counts, 50),
+                LatencyHistogram.valueAtPercentile(counts, 90),
+                LatencyHistogram.valueAtPercentile(counts, 99),
+                LatencyHistogram.valueAtPercentile(counts, 99.9),
+                LatencyHistogram.maxValue(counts),
+                topDenied.snapshot());
+    }
+
+    private void record(String userId, boolean result) {
+        if (result) {
+            allowed.increment();
+        } else {
+            denied.increment();
+            if (isSampled()) {
+                topDenied.record(userId, sampleInterval);
+            }
+        }
+    }
+
+    private boolean isSampled() {
+        return (ThreadLocalRandom.current().nextInt() & sampleMask) == 0;
+    }
+}
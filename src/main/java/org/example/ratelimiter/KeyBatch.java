@@ -0,0 +1,98 @@
+package org.example.ratelimiter;
+
+import java.util.Arrays;
+
+/**
+ * Groups the duplicate keys of a batch so a limiter can visit each key's state once.
+ * <p>
+ * Every key's first occurrence is its group head; {@link #next} walks the remaining
+ * occurrences in batch order. Instances are reused per thread and stay valid until that
+ * thread groups its next batch.
+ */
+final class KeyBatch {
+    private static final ThreadLocal<KeyBatch> CURRENT = ThreadLocal.withInitial(KeyBatch::new);
+
+    private int[] next = new int[0];
+    private boolean[] duplicate = new boolean[0];
+    private int[] table = new int[0];   // open addressing: index + 1 of the key's latest occurrence
+
+    private KeyBatch() {
+    }
+
+    static void checkLengths(String[] userIds, boolean[] out) {
+        if (out.length < userIds.length) {
+            throw new IllegalArgumentException("Output array is shorter than the batch: "
+                    + out.length + " < " + userIds.length);
+        }
+    }
+
+    static KeyBatch group(String[] userIds, boolean[] out) {
+        checkLengths(userIds, out);
+        KeyBatch batch = CURRENT.get();
+        batch.index(userIds);
+        return batch;
+    }
+
+    boolean isDuplicate(int i) {
+        return duplicate[i];
+    }
+
+    /**
+     * @return the index of the next occurrence of the same key, or -1
+     */
+    int next(int i) {
+        return next[i];
+    }
+
+    /**
+     * @return how many times the key whose group starts at {@code head} occurs in the batch
+     */
+    int count(int head) {
+        int count = 0;
+        for (int i = head; i >= 0; i = next[i]) {
+            count++;
+        }
+        return count;
+    }
+
+    private void index(String[] userIds) {
+        int n = userIds.length;
+        if (next.length < n) {
+            next = new int[n];
+            duplicate = new boolean[n];
+        }
+        int tableSize = Integer.highestOneBit(Math.max(2, n) * 2 - 1) << 1;
+        if (table.length < tableSize) {
+            table = new int[tableSize];
+        } else {
+            Arrays.fill(table, 0, tableSize, 0);
+        }
+        int mask = tableSize - 1;
+
+        for (int i = 0; i < n; i++) {
+            next[i] = -1;
+            duplicate[i] = false;
+
+            String key = userIds[i];
+            int slot = spread(key.hashCode()) & mask;
+            while (true) {
+                int occupant = table[slot] - 1;
+                if (occupant < 0) {
+                    table[slot] = i + 1;
+                    break;
+                }
+                if (userIds[occupant].equals(key)) {
+                    next[occupant] = i;
+                    duplicate[i] = true;
+                    table[slot] = i + 1;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+}
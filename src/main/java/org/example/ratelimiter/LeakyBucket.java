@@ -1,19 +1,25 @@
 package org.example.ratelimiter;
 
-import java.util.Deque;
-import java.util.LinkedList;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
-public class LeakyBucket implements RateLimiter {
+public class LeakyBucket implements ReservingRateLimiter, RefundableRateLimiter, WeightedRateLimiter,
+        RetryAfterRateLimiter {
 
     private final long capacity;              // Max requests allowed in the queue (Bucket size)
     private final long leakIntervalMs;        // The fixed time interval between allowed requests (IAT/LI)
-    private final Map<String, Deque<Long>> userBuckets = new ConcurrentHashMap<>();
+    private final Map<String, RequestLog> userBuckets = new ConcurrentHashMap<>();
+    private final ExpiryWheel expiryWheel = ExpiryWheel.shared();
+    private final TimeSource timeSource;
 
     public LeakyBucket(int maxRatePerSecond, int burstCapacity) {
-        this.capacity = burstCapacity;
+        this(maxRatePerSecond, burstCapacity, TimeSource.monotonic());
+    }
+
+    public LeakyBucket(int maxRatePerSecond, int burstCapacity, TimeSource timeSource) {
+        this.capacity = RequestLog.checkMaxSize(burstCapacity);
+        this.timeSource = timeSource;
 
         if (maxRatePerSecond <= 0) {
             throw new IllegalArgumentException("Rate must be greater than zero.");
@@ -25,30 +31,175 @@ public class LeakyBucket implements RateLimiter {
 
     @Override
     public boolean allowRequest(String userId) {
-        long currentTime = System.currentTimeMillis();
+        long currentTime = timeSource.millis();
 
-        // Get or create the user's bucket (log of timestamps)
-        Deque<Long> bucket = userBuckets.computeIfAbsent(userId, k -> new LinkedList<>());
+        while (true) {
+            // Get or create the user's bucket (log of timestamps)
+            RequestLog bucket = lookup(userId);
 
-        // Synchronize only the USER's specific bucket
-        synchronized (bucket) {
+            // Synchronize only the USER's specific bucket
+            synchronized (bucket) {
+                if (bucket.evicted) {
+                    // Reaped between lookup and lock; pick up the fresh bucket
+                    continue;
+                }
+                return tryAcquire(bucket, currentTime, 1);
+            }
+        }
+    }
+
+    @Override
+    public boolean allowRequest(String userId, int permits) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("Permits must be at least 1: " + permits);
+        }
+        long currentTime = timeSource.millis();
 
-            // 1. Pruning (Simulate Leak): Remove requests older than the Leak Interval
-            // The concept here is: if the time since the oldest request is greater than
-            // the time needed to process one request (LI), that request has "leaked out".
-            while (!bucket.isEmpty() && (currentTime - bucket.peekFirst() >= leakIntervalMs)) {
-                bucket.pollFirst();
+        while (true) {
+            RequestLog bucket = lookup(userId);
+
+            synchronized (bucket) {
+                if (bucket.evicted) {
+                    continue;
+                }
+                return tryAcquire(bucket, currentTime, permits);
             }
+        }
+    }
+
+    @Override
+    public void allowRequests(String[] userIds, boolean[] out) {
+        long currentTime = timeSource.millis();
+        KeyBatch batch = KeyBatch.group(userIds, out);
 
-            // 2. Capacity Check (Overflow): Check if the queue/bucket is full
-            if(bucket.size() < capacity) {
-                bucket.addLast(currentTime);
-                // accepted
-                return  true;
+        for (int i = 0; i < userIds.length; i++) {
+            if (batch.isDuplicate(i)) {
+                continue;
+            }
+            while (true) {
+                RequestLog bucket = lookup(userIds[i]);
+
+                synchronized (bucket) {
+                    if (bucket.evicted) {
+                        continue;
+                    }
+                    for (int j = i; j >= 0; j = batch.next(j)) {
+                        out[j] = tryAcquire(bucket, currentTime, 1);
+                    }
+                    break;
+                }
             }
         }
+    }
+
+    @Override
+    public long reserve(String userId, long maxWaitMillis) {
+        long currentTime = timeSource.millis();
+
+        while (true) {
+            RequestLog bucket = lookup(userId);
+
+            synchronized (bucket) {
+                if (bucket.evicted) {
+                    continue;
+                }
+                if (tryAcquire(bucket, currentTime, 1)) {
+                    return 0;
+                }
+
+                // Full: the next slot opens when the oldest entry leaks out. Take that slot now by
+                // moving one of the oldest entry's permits to the future admission time. Entries stay
+                // sorted because every later reservation is based on an entry that is no older.
+                long admitAt = bucket.oldest() + leakIntervalMs;
+                long waitMillis = admitAt - currentTime;
+                if (waitMillis > maxWaitMillis) {
+                    return -1;
+                }
+                bucket.removeOldestPermit();
+                bucket.add(admitAt);
+                return waitMillis;
+            }
+        }
+    }
+
+    @Override
+    public void refund(String userId, long grant) {
+        RequestLog bucket = userBuckets.get(userId);
+        if (bucket == null) {
+            return;
+        }
+        synchronized (bucket) {
+            if (!bucket.evicted && !bucket.isEmpty()) {
+                bucket.removeNewestPermit();
+            }
+        }
+    }
+
+    // The oldest entry frees at least one slot when it leaks out
+    @Override
+    public long retryAfterMillis(String userId) {
+        RequestLog bucket = userBuckets.get(userId);
+        if (bucket == null) {
+            return 0;
+        }
+        long currentTime = timeSource.millis();
+        synchronized (bucket) {
+            while (!bucket.isEmpty() && currentTime - bucket.oldest() >= leakIntervalMs) {
+                bucket.removeOldest();
+            }
+            if (bucket.evicted || bucket.permits() < capacity) {
+                return 0;
+            }
+            return bucket.oldest() + leakIntervalMs - currentTime;
+        }
+    }
+
+    private RequestLog lookup(String userId) {
+        RequestLog bucket = userBuckets.get(userId);
+        if (bucket == null) {
+            // Only new users pay for the capturing lambda
+            bucket = userBuckets.computeIfAbsent(userId, k -> track(k, new RequestLog(capacity)));
+        }
+        return bucket;
+    }
+
+    // Caller holds the bucket's lock
+    private boolean tryAcquire(RequestLog bucket, long currentTime, int permits) {
+        // 1. Pruning (Simulate Leak): Remove requests older than the Leak Interval
+        // The concept here is: if the time since the oldest request is greater than
+        // the time needed to process one request (LI), that request has "leaked out".
+        while (!bucket.isEmpty() && (currentTime - bucket.oldest() >= leakIntervalMs)) {
+            bucket.removeOldest();
+        }
+
+        // 2. Capacity Check (Overflow): Check if the queue/bucket is full
+        if(bucket.permits() + (long) permits <= capacity) {
+            bucket.add(currentTime, permits);
+            // accepted
+            return  true;
+        }
 
         // Deny (Bucket Overflow)
         return false;
     }
+
+    private RequestLog track(String userId, RequestLog log) {
+        expiryWheel.schedule(leakIntervalMs, () -> expire(userId, log));
+        return log;
+    }
+
+    // Once the newest request has leaked out the bucket is empty, same as for an unknown user
+    private long expire(String userId, RequestLog log) {
+        synchronized (log) {
+            if (!log.isEmpty()) {
+                long remaining = log.newest() + leakIntervalMs - timeSource.millis();
+                if (remaining > 0) {
+                    return remaining;
+                }
+            }
+            log.evicted = true;
+            userBuckets.remove(userId, log);
+            return 0;
+        }
+    }
 }
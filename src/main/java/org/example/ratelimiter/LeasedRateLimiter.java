@@ -0,0 +1,192 @@
+package org.example.ratelimiter;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fixed window limit shared by every node that points at the same {@link RateLimitStateStore}.
+ * <p>
+ * Each node takes permits from the store in blocks of {@code leaseSize} and hands them
+ * out locally, so only one request in {@code leaseSize} costs a round trip. Once the
+ * store has nothing left for a window the node denies locally until the next window
+ * starts, so abusive keys cost no round trips either.
+ * <p>
+ * The global limit holds because the store never grants past it. The price is
+ * under-admission: permits leased by one node cannot be used by another, so up to
+ * {@code nodes * (leaseSize - 1)} permits of a window may go unused when traffic moves
+ * between nodes. Pick the lease size well below {@code maxRequests / nodes}.
+ * <p>
+ * Windows are numbered {@code floor(time / windowSizeMillis)}, so all nodes must share a
+ * time base: the default is {@link TimeSource#system()}, not the per-process monotonic clock.
+ * Store failures propagate out of {@link #allowRequest}; permits already leased keep being
+ * served while the store is unreachable.
+ * <p>
+ * The store call runs without the key's lock held. One thread per key makes the round
+ * trip; other requests for that key still take leased permits, and those that need the
+ * new lease wait for the round trip in flight instead of starting a second one.
+ */
+public class LeasedRateLimiter implements RefundableRateLimiter {
+    private final RateLimitStateStore store;
+    private final long maxRequests;
+    private final long windowSizeMillis;
+    private final long leaseSize;
+    private final TimeSource timeSource;
+
+    private final Map<String, QuotaLease> leases = new ConcurrentHashMap<>();
+    private final ExpiryWheel expiryWheel = ExpiryWheel.shared();
+
+    public LeasedRateLimiter(RateLimitStateStore store, long maxRequests, long windowSizeMillis, long leaseSize) {
+        this(store, maxRequests, windowSizeMillis, leaseSize, TimeSource.system());
+    }
+
+    public LeasedRateLimiter(RateLimitStateStore store, long maxRequests, long windowSizeMillis, long leaseSize,
+                             TimeSource timeSource) {
+        if (maxRequests <= 0) {
+            throw new IllegalArgumentException("Max requests must be greater than zero.");
+        }
+        if (windowSizeMillis <= 0) {
+            throw new IllegalArgumentException("Window size must be greater than zero.");
+        }
+        if (leaseSize <= 0) {
+            throw new IllegalArgumentException("Lease size must be greater than zero.");
+        }
+        this.store = store;
+        this.maxRequests = maxRequests;
+        this.windowSizeMillis = windowSizeMillis;
+        this.leaseSize = Math.min(leaseSize, maxRequests);
+        this.timeSource = timeSource;
+    }
+
+    @Override
+    public boolean allowRequest(String userId) {
+        return grant(userId) != DENIED;
+    }
+
+    // The grant is named by its window index
+    @Override
+    public long grant(String userId) {
+        long windowIndex = Math.floorDiv(timeSource.millis(), windowSizeMillis);
+
+        while (true) {
+            QuotaLease lease = lookup(userId, windowIndex);
+            CompletableFuture<Void> pending;
+            CompletableFuture<Void> refill = null;
+
+            synchronized (lease) {
+                if (lease.evicted) {
+                    continue;
+                }
+                if (!rollOver(lease, windowIndex)) {
+                    return DENIED;
+                }
+                if (lease.remaining > 0) {
+                    lease.remaining--;
+                    return windowIndex;
+                }
+                if (lease.exhausted) {
+                    return DENIED;
+                }
+                pending = lease.refill;
+                if (pending == null) {
+                    refill = new CompletableFuture<>();
+                    lease.refill = refill;
+                }
+            }
+
+            if (refill != null) {
+                return refill(userId, lease, windowIndex, refill) ? windowIndex : DENIED;
+            }
+            // Another thread is already fetching this key's lease; a second request would
+            // only ask the store for permits the first one is about to bring back
+            pending.join();
+        }
+    }
+
+    // The permit goes back into the local lease, not to the store, while it still leases the grant's window
+    @Override
+    public void refund(String userId, long grant) {
+        QuotaLease lease = leases.get(userId);
+        if (lease == null) {
+            return;
+        }
+        synchronized (lease) {
+            if (!lease.evicted && lease.windowIndex == grant) {
+                lease.remaining++;
+            }
+        }
+    }
+
+    private QuotaLease lookup(String userId, long windowIndex) {
+        QuotaLease lease = leases.get(userId);
+        if (lease == null) {
+            // Only new users pay for the capturing lambda
+            lease = leases.computeIfAbsent(userId, k -> track(k, new QuotaLease(windowIndex)));
+        }
+        return lease;
+    }
+
+    /**
+     * Moves the lease to {@code windowIndex}. Caller holds the lease's lock.
+     *
+     * @return false if the caller's window is already over
+     */
+    private boolean rollOver(QuotaLease lease, long windowIndex) {
+        if (windowIndex > lease.windowIndex) {
+            // Leftover permits belong to the old window in the store as well; drop them
+            lease.windowIndex = windowIndex;
+            lease.remaining = 0;
+            lease.exhausted = false;
+        } else if (windowIndex < lease.windowIndex) {
+            // A caller that read the clock just before a window change; the old window is gone
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Fetches a new lease for the caller, who takes the first permit of it. Permits for a
+     * window the lease has moved past are dropped, like leftovers at a window change.
+     */
+    private boolean refill(String userId, QuotaLease lease, long windowIndex, CompletableFuture<Void> refill) {
+        long granted = 0;
+        boolean answered = false;
+        try {
+            // Counters must outlive the window; a second window of slack covers skew between nodes
+            granted = store.acquire(userId, windowIndex, leaseSize, maxRequests, 2 * windowSizeMillis);
+            answered = true;
+        } finally {
+            synchronized (lease) {
+                lease.refill = null;
+                if (answered && !lease.evicted && lease.windowIndex == windowIndex) {
+                    if (granted == 0) {
+                        lease.exhausted = true;
+                    } else {
+                        lease.remaining += granted - 1;
+                    }
+                }
+            }
+            // Waiters look at the lease again; if this call failed, one of them retries the store
+            refill.complete(null);
+        }
+        return granted > 0;
+    }
+
+    private QuotaLease track(String userId, QuotaLease lease) {
+        expiryWheel.schedule(windowSizeMillis, () -> expire(userId, lease));
+        return lease;
+    }
+
+    // A lease is worthless once its window has ended; the next request starts a new one
+    private long expire(String userId, QuotaLease lease) {
+        synchronized (lease) {
+            long remaining = (lease.windowIndex + 1) * windowSizeMillis - timeSource.millis();
+            if (remaining > 0) {
+                return remaining;
+            }
+            lease.evicted = true;
+            leases.remove(userId, lease);
+            return 0;
+        }
+    }
+}
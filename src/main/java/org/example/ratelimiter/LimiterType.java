@@ -3,9 +3,14 @@ package org.example.ratelimiter;
 public enum LimiterType {
 
     FIXED_WINDOW,
+    FIXED_WINDOW_EPOCH,
     SLIDING_LOG,
+    SLIDING_WINDOW_COUNTER,
+    SLIDING_WINDOW_SKETCH,
     TOKEN_BUCKET,
+    TOKEN_BUCKET_LOCK_FREE,
     LEAKY_BUCKET_TIMESTAMP,
-    LEAKY_BUCKET_QUEUE
+    LEAKY_BUCKET_QUEUE,
+    ADAPTIVE_CONCURRENCY
 
 }
@@ -0,0 +1,408 @@
+package org.example.ratelimiter;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays traffic against any {@link LimiterType} from many threads and reports what
+ * capacity planning needs: sustained throughput, decision latency percentiles, heap
+ * growth, and how closely the decisions follow the configured limit.
+ * <p>
+ * Usage, all options optional:
+ * <pre>
+ *   java org.example.ratelimiter.LoadHarness --type TOKEN_BUCKET --limit 100 --threads 8 --virtual
+ *        --trace zipf|bursty|diurnal|&lt;file&gt; --keys 100000 --zipf 0.99 --rate 200000 --seconds 10
+ * </pre>
+ * <ul>
+ *   <li>{@code --limit} - permits per key per second; the limiter is built through
+ *       {@link RateLimiterFactory} with parameters equivalent to that limit</li>
+ *   <li>{@code --trace zipf} - keys drawn from a Zipf distribution ({@code --zipf 0} is
+ *       uniform) at a constant rate</li>
+ *   <li>{@code --trace bursty} - the same keys, with the first 100ms of every second sent at
+ *       10x the base rate</li>
+ *   <li>{@code --trace diurnal} - the rate follows one day's sine wave (from 20% to 180%
+ *       of {@code --rate}) compressed into the run</li>
+ *   <li>{@code --trace <file>} - one request per line, either {@code key} or
+ *       {@code millis key}; with timestamps the file is replayed at its recorded pace
+ *       (scaled by {@code --speed}), otherwise as fast as possible</li>
+ *   <li>{@code --rate} - total offered requests per second; 0 (the default for zipf)
+ *       sends as fast as the limiter answers</li>
+ *   <li>{@code --virtual} - producers are virtual threads instead of platform threads</li>
+ * </ul>
+ * Synthetic traces draw each key as it is sent, so even {@code --keys} in the millions
+ * are all reachable; the draw costs a few nanoseconds per request and counts towards
+ * throughput but not latency. Every {@value #LATENCY_SAMPLE_INTERVAL}th decision is timed, into a per-thread
+ * {@link LatencyHistogram}. Accuracy compares each key's allowed requests with the most
+ * its limit can permit over the run ({@link #budget}), and shows the rate the hottest
+ * key actually got next to the limiter's steady rate.
+ */
+public class LoadHarness {
+    static final int LATENCY_SAMPLE_INTERVAL = 16;
+
+    /**
+     * Which key every request uses, and when it is sent.
+     */
+    private static final class Trace {
+        final String name;
+        final String[] keyNames;
+        final int[] fileRanks;        // file traces: the recorded key sequence
+        final long[] fileOffsetNanos; // file traces: send times, or null to send as fast as possible
+        final double zipfExponent;    // synthetic traces
+        final double rate;            // synthetic traces: base requests per second over all threads, 0 = unpaced
+
+        Trace(String name, String[] keyNames, int[] fileRanks, long[] fileOffsetNanos, double zipfExponent, double rate) {
+            this.name = name;
+            this.keyNames = keyNames;
+            this.fileRanks = fileRanks;
+            this.fileOffsetNanos = fileOffsetNanos;
+            this.zipfExponent = zipfExponent;
+            this.rate = rate;
+        }
+
+        /**
+         * Offered rate multiplier at {@code elapsed} into a run of {@code runNanos}.
+         */
+        double shape(long elapsed, long runNanos) {
+            switch (name) {
+                case "bursty":
+                    return elapsed % TimeUnit.SECONDS.toNanos(1) < TimeUnit.MILLISECONDS.toNanos(100) ? 10.0 : 1.0;
+                case "diurnal":
+                    return 1.0 + 0.8 * Math.sin(2 * Math.PI * elapsed / runNanos - Math.PI / 2);
+                default:
+                    return 1.0;
+            }
+        }
+    }
+
+    /**
+     * What one producer thread saw; merged after the run.
+     */
+    private static final class ThreadResult {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final int[] offered;
+        final int[] allowed;
+        final long[] perSecond;
+        final ZipfSampler sampler; // synthetic traces only
+
+        ThreadResult(int keys, int seconds, ZipfSampler sampler) {
+            this.offered = new int[keys];
+            this.allowed = new int[keys];
+            this.perSecond = new long[seconds + 1];
+            this.sampler = sampler;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = parseOptions(args);
+        LimiterType type = LimiterType.valueOf(options.getOrDefault("type", "TOKEN_BUCKET"));
+        long limit = Long.parseLong(options.getOrDefault("limit", "100"));
+        int threads = Integer.parseInt(options.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        boolean virtual = options.containsKey("virtual");
+        int seconds = Integer.parseInt(options.getOrDefault("seconds", "10"));
+        Trace trace = loadTrace(options);
+
+        RateLimiter limiter = create(type, limit);
+        // Everything the producers allocate up front exists before the first measurement,
+        // so heap growth is the limiter's state alone
+        ThreadResult[] results = new ThreadResult[threads];
+        for (int t = 0; t < threads; t++) {
+            ZipfSampler sampler = trace.fileRanks != null ? null
+                    : new ZipfSampler(trace.keyNames.length, trace.zipfExponent, 42 + t);
+            results[t] = new ThreadResult(trace.keyNames.length, seconds, sampler);
+        }
+        Thread[] producers = new Thread[threads];
+        long heapBefore = usedHeapAfterGc();
+
+        long runNanos = TimeUnit.SECONDS.toNanos(seconds);
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50); // let every producer start first
+        for (int t = 0; t < threads; t++) {
+            ThreadResult result = results[t];
+            int threadIndex = t;
+            Runnable producer = () -> produce(limiter, trace, result, threadIndex, threads, start, runNanos);
+            producers[t] = virtual ? Thread.ofVirtual().start(producer) : Thread.ofPlatform().start(producer);
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        long heapAfter = usedHeapAfterGc();
+
+        report(type, limit, threads, virtual, seconds, trace, results, heapAfter - heapBefore);
+        // Keep the limiter's state reachable until the heap has been measured
+        limiter.allowRequest(trace.keyNames[0]);
+    }
+
+    private static void produce(RateLimiter limiter, Trace trace, ThreadResult result,
+                                int threadIndex, int threads, long start, long runNanos) {
+        ZipfSampler sampler = result.sampler;
+        String[] keyNames = trace.keyNames;
+        double perThreadRate = trace.rate / threads;
+        long end = start + runNanos;
+
+        long next = start;
+        long fileCycle = 0; // how many times a timed file trace has wrapped around
+        int fileIndex = threadIndex;
+        long calls = 0;
+
+        LockSupport.parkNanos(start - System.nanoTime());
+        while (true) {
+            long now = System.nanoTime();
+            if (now >= end) {
+                break;
+            }
+
+            int rank;
+            if (sampler != null) {
+                rank = sampler.nextRank();
+                if (perThreadRate > 0) {
+                    if (now < next) {
+                        LockSupport.parkNanos(next - now);
+                        now = System.nanoTime();
+                    }
+                    // Behind schedule: send now and let the schedule catch up, so a slow limiter sees the backlog
+                    next += (long) (1e9 / (perThreadRate * trace.shape(next - start, runNanos)));
+                }
+            } else {
+                // Threads take interleaved lines of the file: thread t sends lines t, t + threads, ...
+                rank = trace.fileRanks[fileIndex];
+                if (trace.fileOffsetNanos != null) {
+                    long fileLength = trace.fileOffsetNanos[trace.fileOffsetNanos.length - 1] + 1;
+                    long sendAt = start + fileCycle * fileLength + trace.fileOffsetNanos[fileIndex];
+                    if (now < sendAt) {
+                        LockSupport.parkNanos(sendAt - now);
+                        now = System.nanoTime();
+                    }
+                }
+                fileIndex += threads;
+                if (fileIndex >= trace.fileRanks.length) {
+                    fileIndex -= trace.fileRanks.length;
+                    fileCycle++;
+                }
+            }
+
+            boolean allowed;
+            if ((calls & (LATENCY_SAMPLE_INTERVAL - 1)) == 0) {
+                long before = System.nanoTime();
+                allowed = limiter.allowRequest(keyNames[rank]);
+                long after = System.nanoTime();
+                result.latency.record(after - before);
+                now = after;
+            } else {
+                allowed = limiter.allowRequest(keyNames[rank]);
+            }
+            calls++;
+            result.offered[rank]++;
+            if (allowed) {
+                result.allowed[rank]++;
+            }
+            result.perSecond[(int) Math.min(result.perSecond.length - 1, (now - start) / 1_000_000_000L)]++;
+        }
+    }
+
+    private static void report(LimiterType type, long limit, int threads, boolean virtual, int seconds,
+                               Trace trace, ThreadResult[] results, long heapGrowth) {
+        int keys = trace.keyNames.length;
+        long[] latency = null;
+        long[] perSecond = new long[seconds];
+        long[] offered = new long[keys];
+        long[] allowed = new long[keys];
+        for (ThreadResult result : results) {
+            long[] counts = result.latency.copyCounts();
+            if (latency == null) {
+                latency = counts;
+            } else {
+                for (int i = 0; i < counts.length; i++) {
+                    latency[i] += counts[i];
+                }
+            }
+            for (int s = 0; s < seconds; s++) {
+                perSecond[s] += result.perSecond[s];
+            }
+            for (int k = 0; k < keys; k++) {
+                offered[k] += result.offered[k];
+                allowed[k] += result.allowed[k];
+            }
+        }
+
+        long totalOffered = Arrays.stream(offered).sum();
+        long totalAllowed = Arrays.stream(allowed).sum();
+        long activeKeys = Arrays.stream(offered).filter(count -> count > 0).count();
+        long[] sortedSeconds = perSecond.clone();
+        Arrays.sort(sortedSeconds);
+
+        double budget = budget(type, limit, seconds);
+        long overAdmitted = 0;
+        long keysOverBudget = 0;
+        int hottest = 0;
+        for (int k = 0; k < keys; k++) {
+            if (allowed[k] > budget) {
+                overAdmitted += (long) (allowed[k] - budget);
+                keysOverBudget++;
+            }
+            if (offered[k] > offered[hottest]) {
+                hottest = k;
+            }
+        }
+
+        System.out.println("=================================================");
+        System.out.printf("  %s, %d/s per key, trace %s, %,d keys%n", type, limit, trace.name, keys);
+        System.out.printf("  %d %s threads, %ds%s%n", threads, virtual ? "virtual" : "platform", seconds,
+                trace.rate > 0 ? String.format(", offered %,.0f req/s base", trace.rate) : ", unpaced");
+        System.out.println("=================================================");
+        System.out.printf("Throughput   %,d decisions/s overall; per second min %,d, median %,d, max %,d%n",
+                totalOffered / seconds, sortedSeconds[0], sortedSeconds[seconds / 2], sortedSeconds[seconds - 1]);
+        System.out.printf("Decisions    %,d offered, %,d allowed (%.1f%%), %,d keys active%n",
+                totalOffered, totalAllowed, 100.0 * totalAllowed / Math.max(1, totalOffered), activeKeys);
+        System.out.printf("Latency      p50 %,dns  p90 %,dns  p99 %,dns  p99.9 %,dns  max %,dns (1 in %d timed)%n",
+                LatencyHistogram.valueAtPercentile(latency, 50), LatencyHistogram.valueAtPercentile(latency, 90),
+                LatencyHistogram.valueAtPercentile(latency, 99), LatencyHistogram.valueAtPercentile(latency, 99.9),
+                LatencyHistogram.maxValue(latency), LATENCY_SAMPLE_INTERVAL);
+        System.out.printf("Heap growth  %,d KB (%,d B per active key)%n",
+                heapGrowth / 1024, activeKeys == 0 ? 0 : Math.max(0, heapGrowth) / activeKeys);
+        System.out.printf("Accuracy     budget %,.0f per key over the run; %,d keys over budget by %,d requests in total;%n",
+                budget, keysOverBudget, overAdmitted);
+        // The hottest key is the one most likely to be saturated: it should get close to the steady rate
+        System.out.printf("             hottest key %s: %,d offered, %,d allowed = %,.1f/s against %,.1f/s steady%n",
+                trace.keyNames[hottest], offered[hottest], allowed[hottest],
+                (double) allowed[hottest] / seconds, steadyRate(type, limit));
+    }
+
+    /**
+     * Builds a limiter allowing {@code limit} permits per key per second.
+     */
+    static RateLimiter create(LimiterType type, long limit) {
+        switch (type) {
+            case ADAPTIVE_CONCURRENCY:
+                throw new IllegalArgumentException("ADAPTIVE_CONCURRENCY limits requests in flight, not a rate; "
+                        + "it needs release() calls the harness cannot make.");
+            case LEAKY_BUCKET_QUEUE:
+                // param1: burst, param2: rate; the queue leaks at most one entry per millisecond
+                return RateLimiterFactory.createLimiter(type, limit, Math.min(limit, 1000));
+            case LEAKY_BUCKET_TIMESTAMP:
+                // param1: burst, param2: rate; GCRA emits at most one request per nanosecond.
+                // A tenth of a second's burst, so the steady rate decides most of the run
+                return RateLimiterFactory.createLimiter(type, gcraBurst(limit), Math.min(limit, 1_000_000_000));
+            case TOKEN_BUCKET:
+            case TOKEN_BUCKET_LOCK_FREE:
+                // param1: capacity, param2: refill per second
+                return RateLimiterFactory.createLimiter(type, limit, limit);
+            default:
+                // param1: maxRequests, param2: windowSizeMillis
+                return RateLimiterFactory.createLimiter(type, limit, 1000);
+        }
+    }
+
+    /**
+     * The most requests one key can be allowed in {@code seconds} by the limiter
+     * {@link #create} builds: the steady rate for the whole run plus one initial burst.
+     * The sliding window counter and its sketch may legitimately exceed it (see {@link SlidingWindowCounter}).
+     */
+    static double budget(LimiterType type, long limit, int seconds) {
+        switch (type) {
+            case LEAKY_BUCKET_QUEUE:
+                return steadyRate(type, limit) * seconds + limit;
+            case LEAKY_BUCKET_TIMESTAMP:
+                return steadyRate(type, limit) * seconds + gcraBurst(limit);
+            case TOKEN_BUCKET:
+            case TOKEN_BUCKET_LOCK_FREE:
+                return steadyRate(type, limit) * seconds + limit;
+            default:
+                // A window may start at any instant, so a run of s seconds touches up to s + 1 windows
+                return (double) limit * (seconds + 1);
+        }
+    }
+
+    private static long gcraBurst(long limit) {
+        return Math.max(1, limit / 10);
+    }
+
+    private static double steadyRate(LimiterType type, long limit) {
+        switch (type) {
+            // Both truncate the interval between requests, so they run slightly above the rate given
+            case LEAKY_BUCKET_QUEUE:
+                return 1000.0 / (1000 / Math.min(limit, 1000));
+            case LEAKY_BUCKET_TIMESTAMP:
+                return 1e9 / (1_000_000_000 / Math.min(limit, 1_000_000_000));
+            default:
+                return limit;
+        }
+    }
+
+    private static Trace loadTrace(Map<String, String> options) throws IOException {
+        String name = options.getOrDefault("trace", "zipf");
+        if (name.equals("zipf") || name.equals("bursty") || name.equals("diurnal")) {
+            int keys = Integer.parseInt(options.getOrDefault("keys", "100000"));
+            double exponent = Double.parseDouble(options.getOrDefault("zipf", "0.99"));
+            double rate = Double.parseDouble(options.getOrDefault("rate", name.equals("zipf") ? "0" : "100000"));
+            if (rate <= 0 && !name.equals("zipf")) {
+                throw new IllegalArgumentException("The " + name + " trace needs --rate > 0.");
+            }
+            String[] keyNames = new String[keys];
+            for (int i = 0; i < keys; i++) {
+                keyNames[i] = "user-" + i;
+            }
+            return new Trace(name, keyNames, null, null, exponent, rate);
+        }
+
+        // Recorded trace: "key" or "millis key" per line
+        List<String> lines = Files.readAllLines(Path.of(name));
+        Map<String, Integer> rankOf = new HashMap<>();
+        int[] ranks = new int[lines.size()];
+        long[] offsets = new long[lines.size()];
+        boolean timed = true;
+        int count = 0;
+        long firstMillis = 0;
+        double speed = Double.parseDouble(options.getOrDefault("speed", "1"));
+        for (String line : lines) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            int space = line.indexOf(' ');
+            String key = space < 0 ? line : line.substring(space + 1).trim();
+            if (space < 0) {
+                timed = false;
+            } else {
+                long millis = Long.parseLong(line.substring(0, space));
+                if (count == 0) {
+                    firstMillis = millis;
+                }
+                offsets[count] = (long) (TimeUnit.MILLISECONDS.toNanos(millis - firstMillis) / speed);
+            }
+            ranks[count++] = rankOf.computeIfAbsent(key, k -> rankOf.size());
+        }
+        if (count == 0) {
+            throw new IllegalArgumentException("Trace file is empty: " + name);
+        }
+        String[] keyNames = new String[rankOf.size()];
+        rankOf.forEach((key, rank) -> keyNames[rank] = key);
+        return new Trace(name, keyNames, Arrays.copyOf(ranks, count), timed ? Arrays.copyOf(offsets, count) : null, 0, 0);
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Expected an --option, got: " + args[i]);
+            }
+            String name = args[i].substring(2);
+            boolean hasValue = i + 1 < args.length && !args[i + 1].startsWith("--");
+            options.put(name, hasValue ? args[++i] : "true");
+        }
+        return options;
+    }
+
+    private static long usedHeapAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
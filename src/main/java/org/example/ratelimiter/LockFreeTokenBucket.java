@@ -0,0 +1,314 @@
+package org.example.ratelimiter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free variant of {@link TokenBucket}.
+ * <p>
+ * Each user's bucket is a single {@code long} held in an {@link AtomicLong}:
+ * <pre>
+ *   63  62                 tokenBits  tokenBits - 1          0
+ *  +---+----------------------------+-------------------------+
+ *  | 0 | last refill (ms, wrapping) |  tokens (fixed point)   |
+ *  +---+----------------------------+-------------------------+
+ * </pre>
+ * Tokens are stored with {@code fractionBits} fractional bits. The token field is 24 bits
+ * wide, which holds capacities up to 65535 with at least 8 fraction bits; larger
+ * capacities widen it up to 31 bits, giving up fraction bits past 2^23 (a capacity near
+ * {@link Integer#MAX_VALUE} counts whole tokens). The refill time takes the remaining
+ * {@code 63 - tokenBits} bits, between 32 and 39. Refill and consume happen in one CAS,
+ * so no monitor is ever taken. A denied request does not write the word at all, which
+ * keeps hot abusive keys from bouncing the cache line.
+ * <p>
+ * The refill time wraps around, every 2^32 ms (about 50 days) for the widest token
+ * field: the time since the last refill is taken modulo that period. That is exact as
+ * long as every word is either touched or reaped within the period, and the expiry wheel
+ * reaps a bucket shortly after it fills, which is why the time to fill an empty bucket
+ * must stay below half the period. A reading up to a quarter period behind the stored
+ * time counts as the clock stepping backwards and adds nothing. A word left alone for
+ * longer than the period can only read as less full than it is, never as fuller.
+ * <p>
+ * Decisions match {@link TokenBucket}; the only difference is that tokens are counted in
+ * {@code 2^-fractionBits} steps. Refill time that does not yet add up to a whole step is
+ * carried over rather than dropped.
+ * <p>
+ * Since the whole bucket is one word, numeric ids can skip the map entirely: built with
+ * {@code maxLongKeys > 0}, {@link #allowRequest(long)} keeps the words inline in a
+ * {@link LongStateTable}, where the slot of a bucket that has refilled completely is
+ * reused by the next new id.
+ */
+public class LockFreeTokenBucket implements RefundableRateLimiter, RetryAfterRateLimiter, LongKeyedRateLimiter {
+    static final int MIN_TOKEN_BITS = 24;
+    static final int MAX_TOKEN_BITS = 31;
+    private static final int MIN_FRACTION_BITS = 8;
+    // Never a valid state: the sign bit of a packed word is always clear
+    private static final long EVICTED = -1L;
+
+    private final int tokenBits;
+    private final long tokenMask;
+    private final long timePeriod;        // refill times run from 1 to timePeriod, then wrap to 1
+    private final long oneToken;          // 1.0 in fixed point
+    private final long capacityFixed;     // capacity in fixed point
+    private final long refillPerSecond;   // refillRate in fixed point tokens / second
+    private final long fullRefillMillis;  // time for an empty bucket to fill completely
+    private final long baseTime;          // time offsets are measured from here; offset 0 is never used
+    private final TimeSource timeSource;
+
+    private final Map<String, AtomicLong> userBuckets = new ConcurrentHashMap<>();
+    private final ExpiryWheel expiryWheel = ExpiryWheel.shared();
+    private final LongStateTable longKeyBuckets;
+
+    public LockFreeTokenBucket(int capacity, double refillRate) {
+        this(capacity, refillRate, TimeSource.monotonic());
+    }
+
+    public LockFreeTokenBucket(int capacity, double refillRate, TimeSource timeSource) {
+        this(capacity, refillRate, timeSource, 0);
+    }
+
+    /**
+     * @param maxLongKeys how many ids {@link #allowRequest(long)} must hold active at once; 0 disables it
+     */
+    public LockFreeTokenBucket(int capacity, double refillRate, TimeSource timeSource, int maxLongKeys) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be greater than zero.");
+        }
+        if (refillRate <= 0) {
+            throw new IllegalArgumentException("Refill rate must be greater than zero.");
+        }
+        int integerBits = Integer.SIZE - Integer.numberOfLeadingZeros(capacity);
+        this.tokenBits = Math.max(MIN_TOKEN_BITS, Math.min(MAX_TOKEN_BITS, integerBits + MIN_FRACTION_BITS));
+        this.tokenMask = (1L << tokenBits) - 1;
+        // All ones would be 0 again modulo 2^timeBits, so the period is one less; 0 stays "no bucket yet"
+        this.timePeriod = (1L << (Long.SIZE - 1 - tokenBits)) - 1;
+        int fractionBits = tokenBits - integerBits;
+        this.oneToken = 1L << fractionBits;
+        this.capacityFixed = (long) capacity << fractionBits;
+        this.refillPerSecond = Math.max(1L, Math.round(refillRate * oneToken));
+        this.fullRefillMillis = (capacityFixed * 1000 + refillPerSecond - 1) / refillPerSecond;
+        if (fullRefillMillis > timePeriod / 2) {
+            throw new IllegalArgumentException("Refill rate too slow for capacity " + capacity
+                    + ": filling an empty bucket must take under " + timePeriod / 2 + "ms");
+        }
+        this.timeSource = timeSource;
+        // An all-zero word means "no bucket yet" in the long key table, so offsets start at 1
+        this.baseTime = timeSource.millis() - 1;
+        this.longKeyBuckets = maxLongKeys > 0
+                ? new LongStateTable(maxLongKeys, state -> isFull(state, timeOffset(timeSource.millis())))
+                : null;
+    }
+
+    @Override
+    public boolean allowRequest(String userId) {
+        long now = timeOffset(timeSource.millis());
+        return acquireUpTo(userId, 1, now) == 1;
+    }
+
+    @Override
+    public void allowRequests(String[] userIds, boolean[] out) {
+        long now = timeOffset(timeSource.millis());
+        KeyBatch batch = KeyBatch.group(userIds, out);
+
+        for (int i = 0; i < userIds.length; i++) {
+            if (batch.isDuplicate(i)) {
+                continue;
+            }
+            // One CAS for all occurrences: the first 'granted' of them are allowed, as they would be one by one
+            long granted = acquireUpTo(userIds[i], batch.count(i), now);
+            for (int j = i; j >= 0; j = batch.next(j)) {
+                out[j] = granted-- > 0;
+            }
+        }
+    }
+
+    @Override
+    public boolean allowRequest(long key) {
+        if (longKeyBuckets == null) {
+            throw new UnsupportedOperationException("Built without a long key table (maxLongKeys = 0).");
+        }
+        long now = timeOffset(timeSource.millis());
+        int slot = longKeyBuckets.slot(key);
+
+        while (true) {
+            if (slot < 0) {
+                return false;
+            }
+            long current = longKeyBuckets.get(slot, key);
+            if (current == LongStateTable.MOVED) {
+                slot = longKeyBuckets.slot(key);
+                continue;
+            }
+            long refilled = current == 0 ? pack(capacityFixed, now) : refill(current, now);
+            long tokens = tokensOf(refilled);
+
+            if (tokens < oneToken) {
+                return false;
+            }
+
+            if (longKeyBuckets.compareAndSet(slot, current, pack(tokens - oneToken, timeOf(refilled)))) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void refund(String userId, long grant) {
+        AtomicLong bucket = userBuckets.get(userId);
+        if (bucket == null) {
+            return;
+        }
+        long now = timeOffset(timeSource.millis());
+        while (true) {
+            long current = bucket.get();
+            if (current == EVICTED) {
+                return; // the fresh bucket is full anyway
+            }
+            long refilled = refill(current, now);
+            long tokens = Math.min(capacityFixed, tokensOf(refilled) + oneToken);
+            if (bucket.compareAndSet(current, pack(tokens, timeOf(refilled)))) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public long retryAfterMillis(String userId) {
+        AtomicLong bucket = userBuckets.get(userId);
+        if (bucket == null) {
+            return 0;
+        }
+        long current = bucket.get();
+        if (current == EVICTED) {
+            return 0;
+        }
+        long now = timeOffset(timeSource.millis());
+        long refilled = refill(current, now);
+        long tokens = tokensOf(refilled);
+        if (tokens >= oneToken) {
+            return 0;
+        }
+        // Counted from the refill timestamp, which may trail now by a carried remainder
+        long waitFromRefill = ((oneToken - tokens) * 1000 + refillPerSecond - 1) / refillPerSecond;
+        return Math.max(1, waitFromRefill - elapsed(timeOf(refilled), now));
+    }
+
+    /**
+     * Takes as many of the {@code wanted} whole tokens as the bucket holds, in one CAS.
+     *
+     * @return the number of tokens taken
+     */
+    private long acquireUpTo(String userId, long wanted, long now) {
+        AtomicLong bucket = lookup(userId, now);
+
+        while (true) {
+            long current = bucket.get();
+            if (current == EVICTED) {
+                // Reaped after our lookup; help unlink it and retry on the fresh bucket
+                userBuckets.remove(userId, bucket);
+                bucket = lookup(userId, now);
+                continue;
+            }
+            long refilled = refill(current, now);
+            long tokens = tokensOf(refilled);
+            long granted = Math.min(wanted, tokens / oneToken);
+
+            if (granted == 0) {
+                // Deny without writing; the refill is recomputed from the stored timestamp next time
+                return 0;
+            }
+
+            if (bucket.compareAndSet(current, pack(tokens - granted * oneToken, timeOf(refilled)))) {
+                return granted;
+            }
+        }
+    }
+
+    private AtomicLong lookup(String userId, long now) {
+        AtomicLong bucket = userBuckets.get(userId);
+        if (bucket == null) {
+            // Only new users pay for the capturing lambda
+            bucket = userBuckets.computeIfAbsent(userId, k -> track(k, new AtomicLong(pack(capacityFixed, now))));
+        }
+        return bucket;
+    }
+
+    /**
+     * Returns the packed state after refilling up to {@code now}. Like {@link TokenBucket},
+     * the timestamp only moves forward, so a clock that steps backwards adds nothing.
+     * <p>
+     * The timestamp only advances by the time the added tokens account for, so the part of
+     * a millisecond's refill that rounds down is carried into the next call instead of lost.
+     * Without that, a bucket with few fraction bits polled every millisecond never refills.
+     */
+    private long refill(long state, long now) {
+        long elapsedTime = elapsed(timeOf(state), now);
+        if (elapsedTime <= 0) {
+            return state;
+        }
+        long tokens = tokensOf(state);
+        if (elapsedTime >= fullRefillMillis) {
+            return pack(capacityFixed, now);
+        }
+        long tokensToAdd = elapsedTime * refillPerSecond / 1000;
+        if (tokens + tokensToAdd >= capacityFixed) {
+            return pack(capacityFixed, now);
+        }
+        // Rounded up, so the carried remainder never adds more than the elapsed time paid for
+        long accountedMillis = (tokensToAdd * 1000 + refillPerSecond - 1) / refillPerSecond;
+        return pack(tokens + tokensToAdd, wrap(timeOf(state) + accountedMillis));
+    }
+
+    // Milliseconds from 'from' to 'to' on the wrapping timeline; negative if the clock stepped back
+    private long elapsed(long from, long to) {
+        long forward = Math.floorMod(to - from, timePeriod);
+        return forward > timePeriod - timePeriod / 4 ? forward - timePeriod : forward;
+    }
+
+    private long wrap(long time) {
+        return (time - 1) % timePeriod + 1;
+    }
+
+    private boolean isFull(long state, long now) {
+        return tokensOf(refill(state, now)) == capacityFixed;
+    }
+
+    private AtomicLong track(String userId, AtomicLong bucket) {
+        expiryWheel.schedule(fullRefillMillis, () -> expire(userId, bucket));
+        return bucket;
+    }
+
+    // A full bucket behaves exactly like the one a new user gets
+    private long expire(String userId, AtomicLong bucket) {
+        long now = timeOffset(timeSource.millis());
+        while (true) {
+            long current = bucket.get();
+            long tokens = tokensOf(refill(current, now));
+            if (tokens < capacityFixed) {
+                long missing = capacityFixed - tokens;
+                return Math.max(1, (missing * 1000 + refillPerSecond - 1) / refillPerSecond);
+            }
+            if (bucket.compareAndSet(current, EVICTED)) {
+                userBuckets.remove(userId, bucket);
+                return 0;
+            }
+        }
+    }
+
+    private long timeOffset(long currentTime) {
+        return Math.floorMod(currentTime - baseTime - 1, timePeriod) + 1;
+    }
+
+    private long pack(long tokens, long timeOffset) {
+        return (timeOffset << tokenBits) | tokens;
+    }
+
+    private long tokensOf(long state) {
+        return state & tokenMask;
+    }
+
+    private long timeOf(long state) {
+        return state >>> tokenBits;
+    }
+}
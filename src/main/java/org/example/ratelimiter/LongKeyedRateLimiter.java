@@ -0,0 +1,18 @@
+package org.example.ratelimiter;
+
+/**
+ * Rate limiter keyed directly by a 64-bit id, for callers whose user ids are already
+ * numbers. Implementations keep these keys in a separate key space from the
+ * {@code String} ids of {@link RateLimiter}: key {@code 42L} and {@code "42"} are
+ * different users.
+ * <p>
+ * Implementations hold these keys in a fixed-size table sized by {@code maxLongKeys}
+ * rather than a growing map. A key whose state has gone back to what a new key would
+ * get (a refilled bucket, an ended window) gives up its slot to the next new key, so
+ * the table bounds how many keys can be <em>active</em> at once, not how many are ever
+ * seen. If a new key finds no free or idle slot near its hash, it is denied; the call
+ * never throws for a valid key.
+ */
+public interface LongKeyedRateLimiter {
+    boolean allowRequest(long key);
+}
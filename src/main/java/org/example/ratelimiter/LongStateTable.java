@@ -0,0 +1,224 @@
+package org.example.ratelimiter;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+/**
+ * Concurrent open-addressing table from {@code long} keys to one {@code long} of
+ * limiter state, stored inline in two parallel primitive arrays.
+ * <p>
+ * A key costs 16 bytes per slot (~21 bytes at the 0.75 load factor the table is sized
+ * for) instead of a String, a map node and a state object, and a lookup is a linear
+ * probe over a flat array instead of pointer chasing.
+ * <p>
+ * Keys are never removed, since concurrent deletion under linear probing would need
+ * tombstones and rehashing. Instead, a slot whose state the owning limiter calls idle
+ * (it would decide exactly like a fresh key's) is handed over to the next new key that
+ * probes past it, which is how the long-key path gets the expiry the String maps get
+ * from the {@link ExpiryWheel}.
+ * <p>
+ * Nothing takes a lock. A new key claims an empty slot with a CAS on its key, or an
+ * idle one with a CAS on its state, and the slot stays <em>claiming</em> until the
+ * claimer has probed the key's whole run again. Two threads claiming the same key each
+ * publish before they probe, so at least one sees the other: a claimer that finds a
+ * confirmed copy, or a claiming one nearer the key's home, releases its own slot and
+ * uses that copy; one that finds a claiming copy further out waits for it to settle.
+ * Lookups that meet a claiming slot wait the same way, so every caller ends up with
+ * one slot per key.
+ * <p>
+ * A state of {@code 0} means "no state yet" and {@link #MOVED} is reserved, so limiters
+ * must only store positive states.
+ */
+final class LongStateTable {
+    static final long EMPTY_KEY = Long.MIN_VALUE;
+    // Returned by get() once the slot belongs to another key; never a valid state
+    static final long MOVED = Long.MIN_VALUE;
+    // Raw slot states besides MOVED and the limiter's positive ones; get() reports FRESH as 0
+    private static final long CLAIMING = 0L;
+    private static final long FRESH = -1L;
+    private static final long RELEASED = -2L;
+    // claim() lost to a copy of the key in another slot; look it up again
+    private static final int RETRY = -2;
+    // Keys live within this many slots of their home, which bounds every probe
+    private static final int MAX_PROBES = 1024;
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final long[] keys;
+    private final long[] states;
+    private final int mask;
+    private final int maxProbes;
+    private final LongPredicate idle;
+
+    /**
+     * @param idle whether a stored state behaves exactly like a fresh key's, so its slot
+     *             may be given to another key
+     */
+    LongStateTable(int maxKeys, LongPredicate idle) {
+        if (maxKeys <= 0 || maxKeys > (1 << 29)) {
+            throw new IllegalArgumentException("Max keys must be between 1 and 2^29: " + maxKeys);
+        }
+        int capacity = Integer.highestOneBit((int) Math.max(2, maxKeys * 4L / 3) - 1) << 1;
+        this.keys = new long[capacity];
+        this.states = new long[capacity];
+        this.mask = capacity - 1;
+        this.maxProbes = Math.min(capacity, MAX_PROBES);
+        this.idle = idle;
+        Arrays.fill(keys, EMPTY_KEY);
+    }
+
+    /**
+     * Finds the key's slot, claiming an empty or idle one on first sight.
+     *
+     * @return the slot, or -1 if every slot near the key's home holds an active key
+     */
+    int slot(long key) {
+        if (key == EMPTY_KEY) {
+            throw new IllegalArgumentException("Key " + EMPTY_KEY + " is reserved.");
+        }
+        while (true) {
+            int slot = find(key);
+            if (slot < 0) {
+                slot = claim(key);
+            }
+            if (slot != RETRY) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * @return the slot's state, or {@link #MOVED} if the slot no longer belongs to
+     *         {@code key}; callers then look the key up again
+     */
+    long get(int slot, long key) {
+        long state = (long) SLOTS.getVolatile(states, slot);
+        // The state is read first: a reclaim publishes the new key before resetting the state
+        if ((state <= 0 && state != FRESH) || (long) SLOTS.getAcquire(keys, slot) != key) {
+            return MOVED;
+        }
+        return state == FRESH ? 0 : state;
+    }
+
+    boolean compareAndSet(int slot, long expected, long update) {
+        return SLOTS.compareAndSet(states, slot, expected == 0 ? FRESH : expected, update);
+    }
+
+    // The key's confirmed slot, or -1 if it has none
+    private int find(long key) {
+        int index = home(key);
+        for (int probes = 0; probes < maxProbes; probes++) {
+            long current = (long) SLOTS.getVolatile(keys, index);
+            if (current == EMPTY_KEY) {
+                return -1;
+            }
+            if (current == key && isLive(settled(index, key))) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Claims the first empty or reclaimable slot in the key's run.
+     *
+     * @return the slot, -1 if there is none, or {@link #RETRY} if a copy of the key turned up
+     */
+    private int claim(long key) {
+        int index = home(key);
+        for (int probes = 0; probes < maxProbes; probes++) {
+            long current = (long) SLOTS.getVolatile(keys, index);
+            if (current == EMPTY_KEY) {
+                if (SLOTS.compareAndSet(keys, index, EMPTY_KEY, key)) {
+                    return confirm(index, key); // a never-used slot's state is already CLAIMING
+                }
+                continue; // taken meanwhile; look at the same slot again
+            }
+            if (current == key && isLive((long) SLOTS.getVolatile(states, index))) {
+                return RETRY;
+            }
+            if (reclaim(index, key)) {
+                return confirm(index, key);
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Probes the key's run again after claiming {@code mine}, so that two claims of one
+     * key never both stand.
+     */
+    private int confirm(int mine, long key) {
+        int home = home(key);
+        int index = home;
+        for (int probes = 0; probes < maxProbes; probes++) {
+            long current = (long) SLOTS.getVolatile(keys, index);
+            if (current == EMPTY_KEY) {
+                break; // claims take the first free slot, so no copy lies beyond an empty one
+            }
+            if (index != mine && current == key) {
+                boolean nearer = ((index - home) & mask) < ((mine - home) & mask);
+                long state = nearer ? (long) SLOTS.getVolatile(states, index) : settled(index, key);
+                if (isLive(state)) {
+                    SLOTS.setVolatile(states, mine, RELEASED);
+                    return RETRY;
+                }
+            }
+            index = (index + 1) & mask;
+        }
+        SLOTS.setVolatile(states, mine, FRESH);
+        return mine;
+    }
+
+    /**
+     * Hands an idle or released slot to {@code key}. Parking the state at {@link #MOVED}
+     * first makes any CAS still in flight for the previous key fail, and it keeps failing:
+     * limiter states only move forward in time, so the new key never stores the old value
+     * again. A fresh state is never taken, as its key has just been claimed and has not
+     * written yet.
+     */
+    private boolean reclaim(int slot, long key) {
+        long state = (long) SLOTS.getVolatile(states, slot);
+        if (state != RELEASED && (state <= 0 || !idle.test(state))) {
+            return false;
+        }
+        if (!SLOTS.compareAndSet(states, slot, state, MOVED)) {
+            return false;
+        }
+        SLOTS.setRelease(keys, slot, key);
+        SLOTS.setVolatile(states, slot, CLAIMING);
+        return true;
+    }
+
+    // The slot's state once any claim of it by 'key' has been confirmed or released
+    private long settled(int slot, long key) {
+        long state = (long) SLOTS.getVolatile(states, slot);
+        while (state == CLAIMING && (long) SLOTS.getVolatile(keys, slot) == key) {
+            Thread.onSpinWait(); // the claimer is one bounded probe away from deciding
+            state = (long) SLOTS.getVolatile(states, slot);
+        }
+        return state;
+    }
+
+    // Confirmed, or (claiming) about to be
+    private static boolean isLive(long state) {
+        return state == FRESH || state == CLAIMING || state > 0;
+    }
+
+    private int home(long key) {
+        return (int) mix(key) & mask;
+    }
+
+    // Murmur3 finalizer; consecutive ids must not cluster into neighbouring slots
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
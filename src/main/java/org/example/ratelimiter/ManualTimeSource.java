@@ -0,0 +1,55 @@
+package org.example.ratelimiter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Clock that only moves when told to, so limiter scenarios run instantly and always
+ * produce the same decisions.
+ */
+public final class ManualTimeSource implements TimeSource {
+    private final AtomicLong nowNanos;
+
+    public ManualTimeSource() {
+        this(0);
+    }
+
+    public ManualTimeSource(long startMillis) {
+        this.nowNanos = new AtomicLong(TimeUnit.MILLISECONDS.toNanos(startMillis));
+    }
+
+    @Override
+    public long millis() {
+        return Math.floorDiv(nowNanos.get(), 1_000_000);
+    }
+
+    @Override
+    public long nanos() {
+        return nowNanos.get();
+    }
+
+    /**
+     * Moves the clock forward and returns the new reading.
+     */
+    public long advance(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Time cannot move backwards: " + millis);
+        }
+        return Math.floorDiv(nowNanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis)), 1_000_000);
+    }
+
+    /**
+     * Moves the clock forward by less than a millisecond if need be; returns the new
+     * reading in nanoseconds.
+     */
+    public long advanceNanos(long nanos) {
+        if (nanos < 0) {
+            throw new IllegalArgumentException("Time cannot move backwards: " + nanos);
+        }
+        return nowNanos.addAndGet(nanos);
+    }
+
+    public void set(long millis) {
+        nowNanos.set(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+}
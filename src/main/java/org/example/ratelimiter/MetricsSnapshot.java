@@ -0,0 +1,25 @@
+package org.example.ratelimiter;
+
+import java.util.List;
+
+/**
+ * Point-in-time view of an {@link InstrumentedRateLimiter}, for exporters to poll.
+ * Latencies are in nanoseconds and come from sampled calls only.
+ */
+public record MetricsSnapshot(String name,
+                              long allowed,
+                              long denied,
+                              long latencySamples,
+                              long p50Nanos,
+                              long p90Nanos,
+                              long p99Nanos,
+                              long p999Nanos,
+                              long maxNanos,
+                              List<KeyCount> topDeniedKeys) {
+
+    /**
+     * A key and its estimated number of denials, scaled up from the sampled ones.
+     */
+    public record KeyCount(String key, long count) {
+    }
+}
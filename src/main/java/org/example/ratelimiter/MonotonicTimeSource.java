@@ -0,0 +1,24 @@
+package org.example.ratelimiter;
+
+/**
+ * {@link System#nanoTime()} scaled to milliseconds and shifted so the timeline starts
+ * near zero, which keeps offsets small for the packed limiters.
+ */
+final class MonotonicTimeSource implements TimeSource {
+    static final MonotonicTimeSource INSTANCE = new MonotonicTimeSource();
+
+    private final long originNanos = System.nanoTime();
+
+    private MonotonicTimeSource() {
+    }
+
+    @Override
+    public long millis() {
+        return (System.nanoTime() - originNanos) / 1_000_000;
+    }
+
+    @Override
+    public long nanos() {
+        return System.nanoTime() - originNanos;
+    }
+}
@@ -0,0 +1,15 @@
+package org.example.ratelimiter;
+
+import java.util.concurrent.CompletableFuture;
+
+public class QuotaLease {
+    long windowIndex;
+    long remaining;       // permits granted by the store and not yet handed out
+    boolean exhausted;    // the store has nothing left for this window; stop asking
+    boolean evicted;      // set under the lease's lock once the expiry wheel has removed it
+    CompletableFuture<Void> refill; // the store round trip in flight for this key, if any
+
+    public QuotaLease(long windowIndex) {
+        this.windowIndex = windowIndex;
+    }
+}
@@ -0,0 +1,26 @@
+package org.example.ratelimiter;
+
+/**
+ * Shared home for rate limit counters, so that several nodes enforce one global limit.
+ * <p>
+ * The store only needs one operation: take permits from a key's counter for a fixed
+ * window, never letting the window's total exceed the limit. Nodes call it to lease
+ * blocks of permits ({@link LeasedRateLimiter}), not once per request.
+ * <p>
+ * Implementations: {@link InMemoryStateStore} for a single process or as the backing
+ * state of {@link StateStoreServer}, and {@link RemoteStateStore} as the client of that
+ * server. A Redis or database backed store would implement the same contract with an
+ * atomic increment-and-cap plus a TTL.
+ */
+public interface RateLimitStateStore {
+
+    /**
+     * Atomically takes up to {@code requested} permits from {@code key}'s counter for
+     * {@code windowIndex}. A counter for an older window is discarded.
+     *
+     * @param limit     the most permits the window may hand out in total, over all callers
+     * @param ttlMillis how long the store must keep the counter; it may forget it afterwards
+     * @return the permits granted, between 0 and {@code requested}
+     */
+    long acquire(String key, long windowIndex, long requested, long limit, long ttlMillis);
+}
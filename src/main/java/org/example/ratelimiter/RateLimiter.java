@@ -2,4 +2,17 @@ package org.example.ratelimiter;
 
 public interface RateLimiter {
     boolean allowRequest(String userId);
+
+    /**
+     * Decides a batch of requests as if {@link #allowRequest} were called for each key in
+     * order at the same instant; {@code out[i]} receives the decision for {@code userIds[i]}.
+     * <p>
+     * Implementations read the clock once per batch and touch each distinct key's state once.
+     */
+    default void allowRequests(String[] userIds, boolean[] out) {
+        KeyBatch.checkLengths(userIds, out);
+        for (int i = 0; i < userIds.length; i++) {
+            out[i] = allowRequest(userIds[i]);
+        }
+    }
 }
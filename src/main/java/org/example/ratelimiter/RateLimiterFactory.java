@@ -1,23 +1,86 @@
 package org.example.ratelimiter;
 
-class RateLimiterFactory {
+public class RateLimiterFactory {
     public static RateLimiter createLimiter(LimiterType type, long param1, long param2) {
+        // Epoch-aligned windows only line up across processes on the wall clock
+        TimeSource timeSource = type == LimiterType.FIXED_WINDOW_EPOCH ? TimeSource.system() : TimeSource.monotonic();
+        return createLimiter(type, param1, param2, timeSource);
+    }
+
+    public static RateLimiter createLimiter(LimiterType type, long param1, long param2, TimeSource timeSource) {
         switch (type) {
             case FIXED_WINDOW:
                 // param1: maxRequests, param2: windowSizeMillis
-                return new FixedWindowRL(param1, param2);
+                return new FixedWindowRL(param1, param2, timeSource);
+            case FIXED_WINDOW_EPOCH:
+                // param1: maxRequests, param2: windowSizeMillis
+                return new EpochFixedWindow(param1, param2, timeSource);
             case SLIDING_LOG:
                 // param1: maxRequests, param2: windowSizeMillis
-                return new SlidingWindow(param1, param2);
+                return new SlidingWindow(param1, param2, timeSource);
+            case SLIDING_WINDOW_COUNTER:
+                // param1: maxRequests, param2: windowSizeMillis
+                return new SlidingWindowCounter(param1, param2, timeSource);
+            case SLIDING_WINDOW_SKETCH:
+                // param1: maxRequests, param2: windowSizeMillis; fixed memory, default error bounds
+                return new CountMinSketchLimiter(param1, param2, CountMinSketchLimiter.DEFAULT_EPSILON,
+                        CountMinSketchLimiter.DEFAULT_DELTA, CountMinSketchLimiter.DEFAULT_HEAVY_HITTERS, timeSource);
             case TOKEN_BUCKET:
                 // param1: capacity (int), param2: refillRate (double tokens/sec)
                 // Casting the long parameters to required types for the constructors
-                return new TokenBucket((int) param1, (double) param2);
+                return new TokenBucket((int) param1, (double) param2, timeSource);
+            case TOKEN_BUCKET_LOCK_FREE:
+                // param1: capacity (int), param2: refillRate (double tokens/sec)
+                return new LockFreeTokenBucket((int) param1, (double) param2, timeSource);
+            case LEAKY_BUCKET_TIMESTAMP:
+                // param1: burstCapacity (int), param2: maxRatePerSecond (int)
+                return new GcraLeakyBucket((int) param2, (int) param1, timeSource);
             case LEAKY_BUCKET_QUEUE:
                 // param1: burstCapacity (int), param2: maxRatePerSecond (int)
-                return new LeakyBucket((int) param2, (int) param1);
+                return new LeakyBucket((int) param2, (int) param1, timeSource);
+            case ADAPTIVE_CONCURRENCY:
+                // Allowed requests must be released, which a plain RateLimiter cannot express
+                throw new IllegalArgumentException("Limiter type " + type + " needs release() calls; "
+                        + "use createConcurrencyLimiter.");
             default:
                 throw new IllegalArgumentException("Unknown limiter type: " + type);
         }
     }
+
+    public static ConcurrencyLimiter createConcurrencyLimiter(LimiterType type, long param1, long param2) {
+        return createConcurrencyLimiter(type, param1, param2, TimeSource.monotonic());
+    }
+
+    /**
+     * Builds a limiter on requests in flight; callers must {@code release()} every allowed request.
+     */
+    public static ConcurrencyLimiter createConcurrencyLimiter(LimiterType type, long param1, long param2,
+                                                              TimeSource timeSource) {
+        switch (type) {
+            case ADAPTIVE_CONCURRENCY:
+                // param1: initialLimit (int), param2: maxLimit (int)
+                return new AdaptiveConcurrencyLimiter(AdaptiveConcurrencyLimiter.Algorithm.GRADIENT,
+                        (int) param1, (int) param2, 0, timeSource);
+            default:
+                throw new IllegalArgumentException("Not a concurrency limiter type: " + type);
+        }
+    }
+
+    /**
+     * Builds a limiter for numeric ids, for the types that keep their per-key state in one word.
+     * param1 and param2 mean the same as for {@link #createLimiter}.
+     */
+    public static LongKeyedRateLimiter createLongKeyedLimiter(LimiterType type, long param1, long param2,
+                                                              int maxKeys, TimeSource timeSource) {
+        switch (type) {
+            case TOKEN_BUCKET_LOCK_FREE:
+                return new LockFreeTokenBucket((int) param1, (double) param2, timeSource, maxKeys);
+            case LEAKY_BUCKET_TIMESTAMP:
+                return new GcraLeakyBucket((int) param2, (int) param1, timeSource, maxKeys);
+            case FIXED_WINDOW_EPOCH:
+                return new EpochFixedWindow(param1, param2, timeSource, maxKeys);
+            default:
+                throw new IllegalArgumentException("No long-keyed variant of limiter type: " + type);
+        }
+    }
 }
@@ -4,12 +4,13 @@ package org.example.ratelimiter;
 public class RateLimiterTest {
     private static final String USER_ID = "testUser123";
 
+    // Scenarios 1-6 run on a ManualTimeSource: "waiting" advances the clock, so results are exact and instant
     private static void printResult(String limiterName, int reqNum, boolean allowed, long currentTime) {
         System.out.printf("[%s] Req %02d @ %dms: %s\n",
                 limiterName, reqNum, currentTime % 10000, allowed ? "✅ ALLOWED" : "❌ DENIED");
     }
 
-    public static void main(String[] args) throws InterruptedException {
+    public static void main(String[] args) throws InterruptedException, java.io.IOException {
 
         System.out.println("=================================================");
         System.out.println("  Rate Limiter Algorithm Validation");
@@ -25,155 +26,944 @@ public class RateLimiterTest {
         testTokenBucket();
 
         testLeakyBucketQueue();
+
+        // --- Test 6: Lock-free Token Bucket must decide exactly like the locking one ---
+        testLockFreeTokenBucket();
+
+        // --- Test 7: Sliding Window Counter (5 reqs / 1000ms, weighted estimate) ---
+        testSlidingWindowCounter();
+
+        // --- Test 8: GCRA (timestamp) Leaky Bucket (5 reqs/sec, Burst 5) ---
+        testLeakyBucketTimestamp();
+
+        // --- Test 9: allowRequests batches must decide exactly like one call per key ---
+        testBatchParity();
+
+        // --- Test 10: Metrics wrapper counts decisions and finds the abusive key ---
+        testInstrumentedLimiter();
+
+        // --- Test 11: Reservations compute exact waits; acquire() sleeps once for that long ---
+        testReservations();
+
+        // --- Test 12: Two nodes leasing from one TCP store enforce one global limit ---
+        testLeasedLimiter();
+
+        // --- Test 13: User, tenant and global tiers in one call; denials consume nothing ---
+        testHierarchicalLimiter();
+
+        // --- Test 14: State survives a restart through a memory-mapped snapshot ---
+        testSnapshots();
+
+        // --- Test 15: Decisions served over HTTP and the pipelined binary protocol ---
+        testDecisionServers();
+
+        // --- Test 16: Adaptive concurrency limits settle near what the downstream can take ---
+        testAdaptiveConcurrency();
+
+        // --- Test 17: Weighted requests take all their permits or none ---
+        testWeightedPermits();
+
+        // --- Test 18: Epoch-aligned windows reset on the clock's boundaries, lock-free ---
+        testEpochFixedWindow();
+
+        // --- Test 19: A deny cache answers repeat denials until the exact retry-after time ---
+        testDenyCache();
+
+        // --- Test 20: A fixed-memory sketch limits 10,000 IPs and promotes the abusive one ---
+        testSketchLimiter();
+
+        // --- Throughput: Token Bucket on a few hot keys as threads are added ---
+        testTokenBucketScaling();
     }
 
     // Test Scenario for Fixed Window
-    private static void testFixedWindow() throws InterruptedException {
+    private static void testFixedWindow() {
         System.out.println("\n--- 1. Fixed Window RL (5 reqs / 1000ms) ---");
         final long MAX_REQS = 5;
         final long WINDOW_MS = 1000;
-        RateLimiter fixedLimiter = new FixedWindowRL(MAX_REQS, WINDOW_MS);
+        ManualTimeSource clock = new ManualTimeSource();
+        RateLimiter fixedLimiter = new FixedWindowRL(MAX_REQS, WINDOW_MS, clock);
 
         // A. Test Burst (5 allowed, 6th denied)
         System.out.println("  -> Testing Burst (Window 1)");
         for (int i = 1; i <= 6; i++) {
             boolean allowed = fixedLimiter.allowRequest(USER_ID);
-            printResult("Fixed", i, allowed, System.currentTimeMillis());
+            printResult("Fixed", i, allowed, clock.millis());
             // Expect: 1-5 allowed, 6 denied
         }
 
         // B. Wait half a window (500ms) - Should still be denied
         System.out.println("  -> Waiting 500ms (Still denied)");
-        Thread.sleep(500);
+        clock.advance(500);
         boolean allowedAfterHalfWindow = fixedLimiter.allowRequest(USER_ID);
-        printResult("Fixed", 7, allowedAfterHalfWindow, System.currentTimeMillis());
+        printResult("Fixed", 7, allowedAfterHalfWindow, clock.millis());
         // Expect: 7 denied
 
         // C. Wait past the window (another 501ms) - Should reset and be allowed
         System.out.println("  -> Waiting 501ms (Window reset)");
-        Thread.sleep(501);
+        clock.advance(501);
         boolean allowedAfterReset = fixedLimiter.allowRequest(USER_ID);
-        printResult("Fixed", 8, allowedAfterReset, System.currentTimeMillis());
+        printResult("Fixed", 8, allowedAfterReset, clock.millis());
         // Expect: 8 allowed (New window started)
     }
 
     // Test Scenario for Sliding Log
-    private static void testSlidingLog() throws InterruptedException {
+    private static void testSlidingLog() {
         System.out.println("\n--- 2. Sliding Log RL (5 reqs / 1000ms) ---");
         final long MAX_REQS = 5;
         final long WINDOW_MS = 1000;
-        RateLimiter slidingLimiter = new SlidingWindow(MAX_REQS, WINDOW_MS);
+        ManualTimeSource clock = new ManualTimeSource();
+        RateLimiter slidingLimiter = new SlidingWindow(MAX_REQS, WINDOW_MS, clock);
 
         // A. Initial 4 requests (T=0)
         System.out.println("  -> Initial 4 requests");
         for (int i = 1; i <= 4; i++) {
             boolean allowed = slidingLimiter.allowRequest(USER_ID);
-            printResult("Sliding", i, allowed, System.currentTimeMillis());
+            printResult("Sliding", i, allowed, clock.millis());
             // Expect: 1-4 allowed
         }
 
         // B. Wait 800ms
         System.out.println("  -> Waiting 800ms (Logs: 0-800)");
-        Thread.sleep(800);
+        clock.advance(800);
 
         // C. Request 5 (T=800) - Allowed, Log size is 5
         boolean allowedReq5 = slidingLimiter.allowRequest(USER_ID);
-        printResult("Sliding", 5, allowedReq5, System.currentTimeMillis());
+        printResult("Sliding", 5, allowedReq5, clock.millis());
         // Expect: 5 allowed
 
         // D. Request 6 (T=800) - Denied, Log size is 5
         boolean deniedReq6 = slidingLimiter.allowRequest(USER_ID);
-        printResult("Sliding", 6, deniedReq6, System.currentTimeMillis());
+        printResult("Sliding", 6, deniedReq6, clock.millis());
         // Expect: 6 denied
 
         // E. Wait 201ms (Oldest log (T=0) is now expired at T=1001)
         System.out.println("  -> Waiting 201ms (Oldest log should expire)");
-        Thread.sleep(201);
+        clock.advance(201);
 
         // F. Request 7 (T=1001) - Allowed, as T=0 log is cleaned up
         boolean allowedReq7 = slidingLimiter.allowRequest(USER_ID);
-        printResult("Sliding", 7, allowedReq7, System.currentTimeMillis());
+        printResult("Sliding", 7, allowedReq7, clock.millis());
         // Expect: 7 allowed
     }
 
     // Test Scenario for Token Bucket
-    private static void testTokenBucket() throws InterruptedException {
+    private static void testTokenBucket() {
         System.out.println("\n--- 3. Token Bucket RL (5 tokens/sec, Cap 5) ---");
         final int CAPACITY = 5;
         final double REFILL_RATE = 5.0; // 5 tokens per second
-        TokenBucket tokenLimiter = new TokenBucket(CAPACITY, REFILL_RATE);
+        ManualTimeSource clock = new ManualTimeSource();
+        TokenBucket tokenLimiter = new TokenBucket(CAPACITY, REFILL_RATE, clock);
 
         // A. Test Burst (5 allowed, 6th denied)
         System.out.println("  -> Testing Initial Burst");
         for (int i = 1; i <= 6; i++) {
             boolean allowed = tokenLimiter.allowRequest(USER_ID);
-            printResult("Token", i, allowed, System.currentTimeMillis());
+            printResult("Token", i, allowed, clock.millis());
             // Expect: 1-5 allowed, 6 denied
         }
 
         // B. Wait for partial refill (100ms) - Should generate 0.5 tokens. Still denied.
         System.out.println("  -> Waiting 100ms (0.5 tokens added)");
-        Thread.sleep(100);
+        clock.advance(100);
         boolean deniedReq7 = tokenLimiter.allowRequest(USER_ID);
-        printResult("Token", 7, deniedReq7, System.currentTimeMillis());
+        printResult("Token", 7, deniedReq7, clock.millis());
         // Expect: 7 denied (needs 1.0 tokens)
 
         // C. Wait for full refill (another 100ms) - Total 200ms elapsed. 1.0 tokens generated.
         System.out.println("  -> Waiting another 100ms (Total 200ms elapsed)");
-        Thread.sleep(100);
+        clock.advance(100);
         boolean allowedReq8 = tokenLimiter.allowRequest(USER_ID);
-        printResult("Token", 8, allowedReq8, System.currentTimeMillis());
+        printResult("Token", 8, allowedReq8, clock.millis());
         // Expect: 8 allowed (1 token consumed)
 
         // D. Wait 1 second (1000ms) - Full bucket refill
         System.out.println("  -> Waiting 1000ms (Full bucket refill)");
-        Thread.sleep(1000);
+        clock.advance(1000);
 
         // E. Burst allowed again
         System.out.println("  -> Testing Burst again (Full bucket)");
         for (int i = 9; i <= 14; i++) {
             boolean allowed = tokenLimiter.allowRequest(USER_ID);
-            printResult("Token", i, allowed, System.currentTimeMillis());
+            printResult("Token", i, allowed, clock.millis());
             // Expect: 9-13 allowed, 14 denied
         }
     }
 
     // Test Scenario for Queue-based Leaky Bucket (Bare-Bones)
-    private static void testLeakyBucketQueue() throws InterruptedException {
+    private static void testLeakyBucketQueue() {
         System.out.println("\n--- 5. Queue-based Leaky Bucket RL (5 reqs/sec, Burst 5) ---");
         final long RATE_PER_SEC = 5;
         final long BURST_CAPACITY = 5;
 
         // Instantiate using Factory (Note: param1=Capacity, param2=Rate)
-        RateLimiter leakyLimiter = RateLimiterFactory.createLimiter(LimiterType.LEAKY_BUCKET_QUEUE, BURST_CAPACITY, RATE_PER_SEC);
+        ManualTimeSource clock = new ManualTimeSource();
+        RateLimiter leakyLimiter = RateLimiterFactory.createLimiter(LimiterType.LEAKY_BUCKET_QUEUE, BURST_CAPACITY, RATE_PER_SEC, clock);
         long LI_MS = 1000 / RATE_PER_SEC; // Leak Interval = 200ms
 
         // A. Initial Burst (5 allowed, 6th denied)
         System.out.println("  -> Testing Initial Burst (Capacity = 5)");
         for (int i = 1; i <= 6; i++) {
             boolean allowed = leakyLimiter.allowRequest(USER_ID);
-            printResult("Queue Leaky", i, allowed, System.currentTimeMillis());
+            printResult("Queue Leaky", i, allowed, clock.millis());
             // Expect: 1-5 allowed, 6 denied
         }
 
         // B. Wait less than LI (e.g., 150ms) - Still denied
         System.out.println("  -> Waiting 150ms (No request leaks yet)");
-        Thread.sleep(150);
+        clock.advance(150);
         boolean deniedReq7 = leakyLimiter.allowRequest(USER_ID);
-        printResult("Queue Leaky", 7, deniedReq7, System.currentTimeMillis());
+        printResult("Queue Leaky", 7, deniedReq7, clock.millis());
         // Expect: 7 denied
 
         // C. Wait 51ms more (Total 201ms elapsed) - Should allow 1 request
         System.out.println("  -> Waiting 51ms (Total 201ms elapsed, 1 request leaks)");
-        Thread.sleep(51);
+        clock.advance(51);
         boolean allowedReq8 = leakyLimiter.allowRequest(USER_ID);
-        printResult("Queue Leaky", 8, allowedReq8, System.currentTimeMillis());
+        printResult("Queue Leaky", 8, allowedReq8, clock.millis());
         // Expect: 8 allowed (Queue size 5 -> Pruned 1 -> Size 4 -> Added 1 -> Size 5)
 
         // D. Subsequent burst attempt is denied
         System.out.println("  -> Testing new burst (Should be denied again)");
         boolean deniedReq9 = leakyLimiter.allowRequest(USER_ID);
-        printResult("Queue Leaky", 9, deniedReq9, System.currentTimeMillis());
+        printResult("Queue Leaky", 9, deniedReq9, clock.millis());
+        // Expect: 9 denied
+    }
+
+    // Test Scenario for the Lock-free Token Bucket: same timeline as Test 3, both limiters side by side
+    private static void testLockFreeTokenBucket() throws InterruptedException {
+        System.out.println("\n--- 6. Lock-free Token Bucket RL vs Token Bucket RL (5 tokens/sec, Cap 5) ---");
+        ManualTimeSource clock = new ManualTimeSource();
+        TokenBucket lockingLimiter = new TokenBucket(5, 5.0, clock);
+        RateLimiter lockFreeLimiter = RateLimiterFactory.createLimiter(LimiterType.TOKEN_BUCKET_LOCK_FREE, 5, 5, clock);
+        LongKeyedRateLimiter longKeyLimiter = RateLimiterFactory.createLongKeyedLimiter(LimiterType.TOKEN_BUCKET_LOCK_FREE, 5, 5, 16, clock);
+
+        int reqNum = 0;
+        int mismatches = 0;
+        long[] pauses = {0, 0, 0, 0, 0, 0, 100, 100, 1000, 0, 0, 0, 0, 0, 0};
+        for (long pause : pauses) {
+            clock.advance(pause);
+            boolean expected = lockingLimiter.allowRequest(USER_ID);
+            boolean allowed = lockFreeLimiter.allowRequest(USER_ID);
+            printResult("LockFree", ++reqNum, allowed, clock.millis());
+            if (allowed != expected || longKeyLimiter.allowRequest(123L) != expected) {
+                mismatches++;
+            }
+        }
+        // Expect: 0 mismatches
+        System.out.println("  -> Mismatches against Token Bucket (String and long keys): " + mismatches);
+
+        // 10 ids through a table sized for 4: idle buckets give their slots to new ids
+        LongKeyedRateLimiter smallTable = RateLimiterFactory.createLongKeyedLimiter(LimiterType.TOKEN_BUCKET_LOCK_FREE, 5, 5, 4, clock);
+        int churnAllowed = 0;
+        for (long id = 1; id <= 10; id++) {
+            churnAllowed += smallTable.allowRequest(id) ? 1 : 0;
+            clock.advance(200); // the bucket is full again before the next id arrives
+        }
+        int crowdedAllowed = 0;
+        for (long id = 100; id < 110; id++) {
+            crowdedAllowed += smallTable.allowRequest(id) ? 1 : 0;
+        }
+        // Expect: 10 allowed, then 8 (all 8 slots) and 2 denials rather than an exception
+        System.out.println("  -> 10 ids through a 4-key table: " + churnAllowed + " allowed; 10 at once: " + crowdedAllowed);
+
+        // 8 threads claim the same 1000 new ids at once: a key placed twice would allow more than 5
+        LongKeyedRateLimiter racedTable = RateLimiterFactory.createLongKeyedLimiter(LimiterType.TOKEN_BUCKET_LOCK_FREE, 5, 5, 2000, clock);
+        java.util.concurrent.atomic.LongAdder racedAllowed = new java.util.concurrent.atomic.LongAdder();
+        java.util.concurrent.CountDownLatch go = new java.util.concurrent.CountDownLatch(1);
+        Thread[] racers = new Thread[8];
+        for (int t = 0; t < racers.length; t++) {
+            racers[t] = new Thread(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (long id = 1_000; id < 2_000; id++) {
+                    racedAllowed.add(racedTable.allowRequest(id) ? 1 : 0);
+                }
+            });
+            racers[t].start();
+        }
+        go.countDown();
+        for (Thread racer : racers) {
+            racer.join();
+        }
+        // Expect: 5000
+        System.out.println("  -> 8 threads x 1000 new ids, 5 tokens each: " + racedAllowed.sum() + " allowed");
+
+        // Capacity 65535 leaves 8 fraction bits: 1 token/sec adds less than one step per millisecond
+        RateLimiter largeBucket = new LockFreeTokenBucket(65535, 1.0, clock);
+        while (largeBucket.allowRequest(USER_ID)) {
+            // drain
+        }
+        int refilled = 0;
+        for (int ms = 0; ms < 3000; ms++) {
+            clock.advance(1);
+            if (largeBucket.allowRequest(USER_ID)) {
+                refilled++;
+            }
+        }
+        // Expect: 3
+        System.out.println("  -> Capacity 65535 at 1 token/sec, polled every ms for 3s: " + refilled + " allowed");
+
+        // Capacity 1M widens the token field to 28 bits, so the refill time wraps every 2^35ms (~398 days)
+        TokenBucket lockingMillion = new TokenBucket(1_000_000, 1000.0, clock);
+        LockFreeTokenBucket lockFreeMillion = new LockFreeTokenBucket(1_000_000, 1000.0, clock);
+        clock.advance(java.util.concurrent.TimeUnit.DAYS.toMillis(400));
+        String[] burst = new String[1_000_001];
+        java.util.Arrays.fill(burst, USER_ID);
+        boolean[] decisions = new boolean[burst.length];
+        int[] allowedMillion = new int[2];
+        for (int i = 0; i < 2; i++) {
+            (i == 0 ? lockingMillion : lockFreeMillion).allowRequests(burst, decisions);
+            for (boolean decision : decisions) {
+                allowedMillion[i] += decision ? 1 : 0;
+            }
+        }
+        clock.advance(1);
+        System.out.printf("  -> Capacity 1M, 400 days in: burst %d / %d allowed, 1ms later %b / %b\n",
+                allowedMillion[0], allowedMillion[1], lockingMillion.allowRequest(USER_ID), lockFreeMillion.allowRequest(USER_ID));
+        // Expect: 1000000 / 1000000, true / true
+    }
+
+    // Test Scenario for the Sliding Window Counter
+    private static void testSlidingWindowCounter() {
+        System.out.println("\n--- 7. Sliding Window Counter RL (5 reqs / 1000ms) ---");
+        ManualTimeSource clock = new ManualTimeSource();
+        RateLimiter counterLimiter = RateLimiterFactory.createLimiter(LimiterType.SLIDING_WINDOW_COUNTER, 5, 1000, clock);
+
+        // A. Fill window 0 (T=0): 5 allowed, 6th denied
+        System.out.println("  -> Filling window 0");
+        for (int i = 1; i <= 6; i++) {
+            boolean allowed = counterLimiter.allowRequest(USER_ID);
+            printResult("Counter", i, allowed, clock.millis());
+            // Expect: 1-5 allowed, 6 denied
+        }
+
+        // B. T=1200: previous window weighs 0.8 -> estimate 4.0, one request fits
+        System.out.println("  -> Waiting 1200ms (previous window weighs 0.8)");
+        clock.advance(1200);
+        for (int i = 7; i <= 8; i++) {
+            boolean allowed = counterLimiter.allowRequest(USER_ID);
+            printResult("Counter", i, allowed, clock.millis());
+            // Expect: 7 allowed (4.0 < 5), 8 denied (5.0)
+        }
+
+        // C. T=1600: previous window weighs 0.4 -> estimate 3.0, two more fit
+        System.out.println("  -> Waiting 400ms (previous window weighs 0.4)");
+        clock.advance(400);
+        for (int i = 9; i <= 11; i++) {
+            boolean allowed = counterLimiter.allowRequest(USER_ID);
+            printResult("Counter", i, allowed, clock.millis());
+            // Expect: 9-10 allowed, 11 denied
+        }
+    }
+
+    // Test Scenario for the GCRA Leaky Bucket: same timeline as Test 5
+    private static void testLeakyBucketTimestamp() {
+        System.out.println("\n--- 8. GCRA (timestamp) Leaky Bucket RL (5 reqs/sec, Burst 5) ---");
+        ManualTimeSource clock = new ManualTimeSource();
+        RateLimiter gcraLimiter = RateLimiterFactory.createLimiter(LimiterType.LEAKY_BUCKET_TIMESTAMP, 5, 5, clock);
+
+        // A. Initial Burst (5 allowed, 6th denied)
+        System.out.println("  -> Testing Initial Burst (Capacity = 5)");
+        for (int i = 1; i <= 6; i++) {
+            boolean allowed = gcraLimiter.allowRequest(USER_ID);
+            printResult("GCRA Leaky", i, allowed, clock.millis());
+            // Expect: 1-5 allowed, 6 denied
+        }
+
+        // B. Wait less than LI (150ms) - Still denied
+        System.out.println("  -> Waiting 150ms (No request leaks yet)");
+        clock.advance(150);
+        printResult("GCRA Leaky", 7, gcraLimiter.allowRequest(USER_ID), clock.millis());
+        // Expect: 7 denied
+
+        // C. Wait 51ms more (Total 201ms elapsed) - exactly one slot has drained
+        System.out.println("  -> Waiting 51ms (Total 201ms elapsed, 1 request leaks)");
+        clock.advance(51);
+        printResult("GCRA Leaky", 8, gcraLimiter.allowRequest(USER_ID), clock.millis());
+        // Expect: 8 allowed
+
+        // D. Unlike the queue version, the rest of the burst has not leaked yet
+        System.out.println("  -> Testing new burst (Should be denied again)");
+        printResult("GCRA Leaky", 9, gcraLimiter.allowRequest(USER_ID), clock.millis());
         // Expect: 9 denied
+
+        // E. Rates above 1M/s leave whole nanoseconds between requests: 2M/s, burst 10
+        RateLimiter fastLimiter = RateLimiterFactory.createLimiter(LimiterType.LEAKY_BUCKET_TIMESTAMP, 10, 2_000_000, clock);
+        int fastAllowed = 0;
+        for (int i = 0; i < 22; i++) {
+            if (i == 11) {
+                clock.advanceNanos(5_000); // drains 10 requests' worth, so the whole burst again
+            }
+            fastAllowed += fastLimiter.allowRequest(USER_ID) ? 1 : 0;
+        }
+        // Expect: 20 (10 of each 11), no ArithmeticException
+        System.out.println("  -> 2M/s, burst 10, 5us apart: " + fastAllowed + " allowed");
+        int paced = 0;
+        for (int i = 0; i < 2_000; i++) {
+            clock.advanceNanos(500);
+            paced += fastLimiter.allowRequest("paced") ? 1 : 0;
+        }
+        // Expect: 2000 - one every 500ns is exactly the rate, not capped at the burst per millisecond
+        System.out.println("  -> 2M/s, one request every 500ns for 1ms: " + paced + " allowed");
+    }
+
+    // Batch API: random batches with many duplicate keys, replayed one by one on a twin limiter
+    private static void testBatchParity() {
+        System.out.println("\n--- 9. Batch vs single decisions (5 reqs per 1000ms / 5 tokens/sec, 4 keys) ---");
+        LimiterType[] types = {LimiterType.FIXED_WINDOW, LimiterType.FIXED_WINDOW_EPOCH, LimiterType.SLIDING_LOG,
+                LimiterType.SLIDING_WINDOW_COUNTER, LimiterType.SLIDING_WINDOW_SKETCH, LimiterType.TOKEN_BUCKET, LimiterType.TOKEN_BUCKET_LOCK_FREE,
+                LimiterType.LEAKY_BUCKET_QUEUE, LimiterType.LEAKY_BUCKET_TIMESTAMP};
+        java.util.Random random = new java.util.Random(7);
+
+        for (LimiterType type : types) {
+            ManualTimeSource clock = new ManualTimeSource();
+            // Window limiters take (maxRequests, windowMillis), the buckets (capacity/burst, rate per second)
+            boolean windowed = type == LimiterType.FIXED_WINDOW || type == LimiterType.FIXED_WINDOW_EPOCH
+                    || type == LimiterType.SLIDING_LOG
+                    || type == LimiterType.SLIDING_WINDOW_COUNTER || type == LimiterType.SLIDING_WINDOW_SKETCH;
+            RateLimiter batched = RateLimiterFactory.createLimiter(type, 5, windowed ? 1000 : 5, clock);
+            RateLimiter single = RateLimiterFactory.createLimiter(type, 5, windowed ? 1000 : 5, clock);
+
+            int decisions = 0;
+            int allowed = 0;
+            int mismatches = 0;
+            for (int round = 0; round < 50; round++) {
+                clock.advance(random.nextInt(300));
+                String[] keys = new String[1 + random.nextInt(16)];
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i] = "user-" + random.nextInt(4);
+                }
+                boolean[] out = new boolean[keys.length];
+                batched.allowRequests(keys, out);
+                for (int i = 0; i < keys.length; i++) {
+                    decisions++;
+                    allowed += out[i] ? 1 : 0;
+                    mismatches += out[i] == single.allowRequest(keys[i]) ? 0 : 1;
+                }
+            }
+            System.out.printf("  -> %-24s %d decisions, %d allowed, %d mismatches\n", type, decisions, allowed, mismatches);
+            // Expect: 0 mismatches for every type
+        }
+    }
+
+    // Instrumentation: one abusive user among well-behaved ones
+    private static void testInstrumentedLimiter() {
+        System.out.println("\n--- 10. Instrumented Fixed Window RL (5 reqs / 1000ms) ---");
+        ManualTimeSource clock = new ManualTimeSource();
+        InstrumentedRateLimiter limiter = new InstrumentedRateLimiter("fixed-window",
+                new FixedWindowRL(5, 1000, clock), 1, 4);
+
+        for (int i = 0; i < 100; i++) {
+            limiter.allowRequest("abuser");
+            limiter.allowRequest("user-" + (i % 20));
+        }
+        limiter.allowRequests(new String[]{"abuser", "newcomer"}, new boolean[2]);
+
+        MetricsSnapshot snapshot = limiter.snapshot();
+        System.out.printf("  -> allowed=%d denied=%d samples=%d p50=%dns p99=%dns\n", snapshot.allowed(),
+                snapshot.denied(), snapshot.latencySamples(), snapshot.p50Nanos(), snapshot.p99Nanos());
+        System.out.println("  -> most denied: " + snapshot.topDeniedKeys());
+        // Expect: allowed=106 denied=96 samples=201 (the batch is one sample), abuser first with 96 denials
+    }
+
+    // Reservations: waits come from bucket state, so no caller ever polls
+    private static void testReservations() throws InterruptedException {
+        System.out.println("\n--- 11. Reservations (5 permits/sec, burst 5) ---");
+        ManualTimeSource clock = new ManualTimeSource();
+        ReservingRateLimiter[] limiters = {
+                new TokenBucket(5, 5.0, clock),
+                new LeakyBucket(5, 5, clock),
+                new GcraLeakyBucket(5, 5, clock)};
+
+        for (ReservingRateLimiter limiter : limiters) {
+            StringBuilder waits = new StringBuilder();
+            for (int i = 1; i <= 8; i++) {
+                waits.append(limiter.reserve(USER_ID, 1000)).append(' ');
+            }
+            // A 9th with a 500ms budget: -1 means nothing was reserved
+            System.out.printf("  -> %-16s waits(ms): %s| 9th within 500ms: %d\n",
+                    limiter.getClass().getSimpleName(), waits, limiter.reserve(USER_ID, 500));
+        }
+        // Expect: Token and GCRA 0 0 0 0 0 200 400 600 | -1
+        //         Queue Leaky 0 0 0 0 0 200 200 200 | 200 (the queue leaks its whole burst at once)
+
+        // Real clock: 10 acquires on a 50/sec bucket with burst 5 take ~100ms
+        TokenBucket realBucket = new TokenBucket(5, 50.0);
+        long start = System.nanoTime();
+        java.util.concurrent.CompletableFuture<?>[] pending = new java.util.concurrent.CompletableFuture<?>[5];
+        for (int i = 0; i < 5; i++) {
+            realBucket.acquire(USER_ID);
+        }
+        for (int i = 0; i < 5; i++) {
+            pending[i] = realBucket.acquireAsync(USER_ID);
+        }
+        java.util.concurrent.CompletableFuture.allOf(pending).join();
+        System.out.printf("  -> 10 acquires (5 blocking, 5 async) took %dms\n", (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // Distributed limiting: each node alone would allow 100, together they must still allow 100
+    private static void testLeasedLimiter() throws java.io.IOException {
+        System.out.println("\n--- 12. Leased limiter (100 reqs / 1000ms global, 2 nodes, lease 10) ---");
+        ManualTimeSource clock = new ManualTimeSource();
+        java.util.concurrent.atomic.LongAdder roundTrips = new java.util.concurrent.atomic.LongAdder();
+
+        try (StateStoreServer server = new StateStoreServer(0, new InMemoryStateStore());
+             RemoteStateStore nodeA = new RemoteStateStore("127.0.0.1", server.port());
+             RemoteStateStore nodeB = new RemoteStateStore("127.0.0.1", server.port())) {
+            RateLimiter[] nodes = {
+                    new LeasedRateLimiter(countingStore(nodeA, roundTrips), 100, 1000, 10, clock),
+                    new LeasedRateLimiter(countingStore(nodeB, roundTrips), 100, 1000, 10, clock)};
+
+            for (int window = 1; window <= 2; window++) {
+                int allowed = 0;
+                for (int i = 0; i < 300; i++) {
+                    if (nodes[i % 2].allowRequest(USER_ID)) {
+                        allowed++;
+                    }
+                }
+                System.out.printf("  -> Window %d: 300 requests, %d allowed, %d store round trips so far\n",
+                        window, allowed, roundTrips.sum());
+                clock.advance(1000);
+            }
+        }
+        // Expect: 100 allowed per window; 12 round trips per window (10 leases + 1 empty answer per node)
+
+        // A store that accepts connections but never answers fails the call after the read timeout
+        try (java.net.ServerSocket silent = new java.net.ServerSocket(0, 50, java.net.InetAddress.getLoopbackAddress());
+             RemoteStateStore hung = new RemoteStateStore("127.0.0.1", silent.getLocalPort(), 1, 200, 200)) {
+            RateLimiter node = new LeasedRateLimiter(hung, 100, 1000, 10, clock);
+            long start = System.nanoTime();
+            String outcome;
+            try {
+                outcome = "allowed=" + node.allowRequest(USER_ID);
+            } catch (java.io.UncheckedIOException e) {
+                outcome = "store failed";
+            }
+            // Expect: store failed after ~200ms
+            System.out.printf("  -> Silent store: %s after %dms\n", outcome, (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    private static RateLimitStateStore countingStore(RateLimitStateStore store, java.util.concurrent.atomic.LongAdder calls) {
+        return (key, windowIndex, requested, limit, ttlMillis) -> {
+            calls.increment();
+            return store.acquire(key, windowIndex, requested, limit, ttlMillis);
+        };
+    }
+
+    // Tiers: 5 per user, 8 per tenant, 20 global, all per 1000ms; ids look like "tenant:user"
+    private static void testHierarchicalLimiter() {
+        System.out.println("\n--- 13. Hierarchical limiter (user 5, tenant 8, global 20 per 1000ms) ---");
+        ManualTimeSource clock = new ManualTimeSource();
+        FixedWindowRL userTier = new FixedWindowRL(5, 1000, clock);
+        RateLimiter limiter = new HierarchicalRateLimiter(java.util.List.of(
+                HierarchicalRateLimiter.Tier.perKey("user", userTier),
+                new HierarchicalRateLimiter.Tier("tenant", new TokenBucket(8, 8.0, clock),
+                        id -> id.substring(0, id.indexOf(':'))),
+                HierarchicalRateLimiter.Tier.global("global", new SlidingWindow(20, 1000, clock))));
+
+        for (String user : new String[]{"acme:alice", "acme:bob", "globex:carol"}) {
+            int allowed = 0;
+            for (int i = 0; i < 6; i++) {
+                if (limiter.allowRequest(user)) {
+                    allowed++;
+                }
+            }
+            System.out.printf("  -> %-13s 6 requests, %d allowed\n", user, allowed);
+        }
+        // Expect: alice 5 (user tier), bob 3 (tenant tier), carol 5 (user tier)
+
+        // bob's 3 tenant denials were refunded in the user tier, so it still holds 2 permits
+        System.out.printf("  -> user tier for acme:bob afterwards: %b %b %b\n", userTier.allowRequest("acme:bob"),
+                userTier.allowRequest("acme:bob"), userTier.allowRequest("acme:bob"));
+        // Expect: true true false
+
+        // A refund that arrives after another request opened a new window must not touch it
+        FixedWindowRL window = new FixedWindowRL(1, 1000, clock);
+        long lateGrant = window.grant("dave");
+        clock.advance(1000);
+        window.allowRequest("dave");
+        window.refund("dave", lateGrant);
+        boolean afterLate = window.allowRequest("dave");
+        // A refund from another thread, as when the request completes on an executor, still counts
+        long grant = window.grant("erin");
+        Thread other = new Thread(() -> window.refund("erin", grant));
+        other.start();
+        try {
+            other.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.printf("  -> late refund, then dave in the new window: %b; erin after a refund from another thread: %b\n",
+                afterLate, window.allowRequest("erin"));
+        // Expect: false; true
+    }
+
+    // Warm restart: the "new process" has a different clock origin and comes up 100ms later
+    private static void testSnapshots() throws java.io.IOException {
+        System.out.println("\n--- 14. Snapshot / restore (Token Bucket 5 tokens/sec, Fixed Window 5 / 1000ms) ---");
+        final int KEYS = 500_000;
+        ManualTimeSource clock = new ManualTimeSource();
+        ManualTimeSource wallClock = new ManualTimeSource(1_700_000_000_000L);
+        TokenBucket bucket = new TokenBucket(5, 5.0, clock);
+        FixedWindowRL window = new FixedWindowRL(5, 1000, clock);
+        for (int i = 0; i < KEYS; i++) {
+            String key = "user-" + i;
+            for (int j = 0; j < 5; j++) {
+                bucket.allowRequest(key);
+                window.allowRequest(key);
+            }
+        }
+
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("ratelimiter-snapshots");
+        java.nio.file.Path bucketFile = dir.resolve("token-bucket.snap");
+        java.nio.file.Path windowFile = dir.resolve("fixed-window.snap");
+        long start = System.nanoTime();
+        long saved = StateSnapshots.save(bucket, bucketFile, wallClock)
+                + StateSnapshots.save(window, windowFile, wallClock);
+        long saveMillis = (System.nanoTime() - start) / 1_000_000;
+
+        wallClock.advance(100);
+        ManualTimeSource restartedClock = new ManualTimeSource(1_000_000);
+        TokenBucket restoredBucket = new TokenBucket(5, 5.0, restartedClock);
+        FixedWindowRL restoredWindow = new FixedWindowRL(5, 1000, restartedClock);
+        start = System.nanoTime();
+        long restored = StateSnapshots.restore(restoredBucket, bucketFile, wallClock)
+                + StateSnapshots.restore(restoredWindow, windowFile, wallClock);
+        long restoreMillis = (System.nanoTime() - start) / 1_000_000;
+
+        System.out.printf("  -> saved %,d entries in %dms (%,d KB), restored %,d in %dms\n", saved, saveMillis,
+                (java.nio.file.Files.size(bucketFile) + java.nio.file.Files.size(windowFile)) / 1024, restored, restoreMillis);
+        System.out.printf("  -> drained keys after restart: token bucket %b, fixed window %b\n",
+                restoredBucket.allowRequest("user-42"), restoredWindow.allowRequest("user-42"));
+        // Expect: 1,000,000 saved and restored (~0.3s on one core); false false (no free burst after the restart)
+
+        java.nio.file.Files.delete(bucketFile);
+        java.nio.file.Files.delete(windowFile);
+        java.nio.file.Files.delete(dir);
+    }
+
+    // Sidecar: same decisions over HTTP and binary, then binary throughput with pipelined batches
+    private static void testDecisionServers() throws java.io.IOException, InterruptedException {
+        System.out.println("\n--- 15. Decision servers (Fixed Window 5 / 1000ms per key) ---");
+        RateLimiter limiter = new FixedWindowRL(5, 1000, new ManualTimeSource());
+        java.net.InetSocketAddress loopback = new java.net.InetSocketAddress(java.net.InetAddress.getLoopbackAddress(), 0);
+        try (HttpDecisionServer http = new HttpDecisionServer(loopback, limiter);
+             BinaryDecisionServer binary = new BinaryDecisionServer(0, limiter);
+             RemoteRateLimiter client = new RemoteRateLimiter("127.0.0.1", binary.port())) {
+            java.net.http.HttpClient httpClient = java.net.http.HttpClient.newHttpClient();
+            StringBuilder statuses = new StringBuilder();
+            for (int i = 0; i < 4; i++) {
+                java.net.http.HttpResponse<String> response = httpClient.send(
+                        java.net.http.HttpRequest.newBuilder(java.net.URI.create(
+                                "http://127.0.0.1:" + http.port() + "/allow?key=" + USER_ID)).build(),
+                        java.net.http.HttpResponse.BodyHandlers.ofString());
+                statuses.append(response.statusCode()).append(' ');
+            }
+            boolean[] decisions = new boolean[3];
+            client.allowRequests(new String[]{USER_ID, USER_ID, "other"}, decisions);
+            System.out.printf("  -> HTTP statuses: %s; binary batch [%s, %s, other]: %s\n",
+                    statuses.toString().trim(), USER_ID, USER_ID, java.util.Arrays.toString(decisions));
+            // Expect: 200 200 200 200; [true, false, true] (the 5th and 6th requests for the user)
+
+            final int CONNECTIONS = 4, BATCH = 256, IN_FLIGHT = 16;
+            final long RUN_MS = 500;
+            String[][] batches = new String[64][BATCH];
+            for (int b = 0; b < batches.length; b++) {
+                for (int i = 0; i < BATCH; i++) {
+                    batches[b][i] = "user-" + ((b * BATCH + i) % 10_000);
+                }
+            }
+            java.util.concurrent.atomic.LongAdder decided = new java.util.concurrent.atomic.LongAdder();
+            long deadline = System.nanoTime() + RUN_MS * 1_000_000;
+            Thread[] threads = new Thread[CONNECTIONS];
+            for (int c = 0; c < CONNECTIONS; c++) {
+                threads[c] = Thread.ofVirtual().start(() -> {
+                    try (RemoteRateLimiter pipelined = new RemoteRateLimiter("127.0.0.1", binary.port())) {
+                        boolean[] out = new boolean[BATCH];
+                        int sent = 0;
+                        for (; sent < IN_FLIGHT; sent++) {
+                            pipelined.send(batches[sent % batches.length]);
+                        }
+                        pipelined.flush();
+                        while (System.nanoTime() < deadline) {
+                            pipelined.receive(out);
+                            decided.add(BATCH);
+                            pipelined.send(batches[sent++ % batches.length]);
+                            pipelined.flush();
+                        }
+                        for (int i = 0; i < IN_FLIGHT; i++) {
+                            pipelined.receive(out);
+                        }
+                    }
+                });
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            System.out.printf("  -> binary: %,d decisions/s over %d connections (batches of %d, %d in flight)\n",
+                    decided.sum() * 1000 / RUN_MS, CONNECTIONS, BATCH, IN_FLIGHT);
+        }
+
+        // Neither protocol can release a slot, so a concurrency limiter would deny every key for good
+        ConcurrencyLimiter concurrency = RateLimiterFactory.createConcurrencyLimiter(LimiterType.ADAPTIVE_CONCURRENCY, 10, 100);
+        int refused = 0;
+        try {
+            RateLimiterFactory.createLimiter(LimiterType.ADAPTIVE_CONCURRENCY, 10, 100);
+        } catch (IllegalArgumentException e) {
+            refused++;
+        }
+        try {
+            new HttpDecisionServer(loopback, concurrency).close();
+        } catch (IllegalArgumentException e) {
+            refused++;
+        }
+        try {
+            new BinaryDecisionServer(0, concurrency).close();
+        } catch (IllegalArgumentException e) {
+            refused++;
+        }
+        System.out.println("  -> createLimiter and both servers refusing ADAPTIVE_CONCURRENCY: " + refused + " of 3");
+        // Expect: 3 of 3
+    }
+
+    // Simulated downstream: 10ms while at most `capacity` requests run at once, queueing beyond that.
+    // 100 clients try every round; the downstream halves its capacity half way through
+    private static void testAdaptiveConcurrency() {
+        System.out.println("\n--- 16. Adaptive concurrency (100 clients, downstream takes 40 then 20) ---");
+        ManualTimeSource clock = new ManualTimeSource();
+        ConcurrencyLimiter[] limiters = {
+                new AdaptiveConcurrencyLimiter(AdaptiveConcurrencyLimiter.Algorithm.GRADIENT, 10, 200, 0, clock),
+                new AdaptiveConcurrencyLimiter(AdaptiveConcurrencyLimiter.Algorithm.AIMD, 10, 200, 15_000_000, clock)};
+
+        for (ConcurrencyLimiter limiter : limiters) {
+            StringBuilder limits = new StringBuilder();
+            for (int round = 1; round <= 400; round++) {
+                int capacity = round <= 200 ? 40 : 20;
+                int running = 0;
+                for (int client = 0; client < 100; client++) {
+                    if (limiter.allowRequest("downstream")) {
+                        running++;
+                    }
+                }
+                long latencyNanos = 10_000_000L * Math.max(capacity, running) / capacity;
+                for (int i = 0; i < running; i++) {
+                    limiter.release("downstream", latencyNanos);
+                }
+                clock.advance(latencyNanos / 1_000_000);
+                if (round % 50 == 0) {
+                    limits.append(' ').append(limiter.limit("downstream"));
+                }
+            }
+            System.out.printf("  -> %-8s limit every 50 rounds:%s\n",
+                    limiter == limiters[0] ? "gradient" : "AIMD", limits);
+        }
+        // Expect: both settle where latency is ~1.5x the 10ms base (their tolerance): 55-70, then 28-36
+    }
+
+    // 100 permits per second: two 50-permit exports fit, a third export and then a ping do not
+    private static void testWeightedPermits() {
+        System.out.println("\n--- 17. Weighted permits (100 permits / 1000ms; export 50, ping 1) ---");
+        ManualTimeSource clock = new ManualTimeSource();
+        WeightedRateLimiter[] limiters = {new FixedWindowRL(100, 1000, clock), new SlidingWindow(100, 1000, clock),
+                new TokenBucket(100, 100.0, clock), new LeakyBucket(100, 100, clock)};
+
+        for (WeightedRateLimiter limiter : limiters) {
+            boolean export1 = limiter.allowRequest(USER_ID, 50);
+            boolean export2 = limiter.allowRequest(USER_ID, 50);
+            boolean export3 = limiter.allowRequest(USER_ID, 50);
+            boolean ping = limiter.allowRequest(USER_ID);
+            clock.advance(1000);
+            boolean pingLater = limiter.allowRequest(USER_ID, 1);
+            boolean tooBig = limiter.allowRequest(USER_ID, 101);
+            System.out.printf("  -> %-13s export %b %b %b, ping %b; 1s later ping %b, 101 permits %b\n",
+                    limiter.getClass().getSimpleName(), export1, export2, export3, ping, pingLater, tooBig);
+            clock.advance(1000);
+        }
+        // Expect: true true false false; true false for every limiter
+
+        // The sliding log keeps one entry per weighted request, not one per permit
+        RequestLog log = new RequestLog(100);
+        log.add(0, 50);
+        log.add(1, 50);
+        System.out.printf("  -> sliding log after two exports: %d entries for %d permits\n", log.size(), log.permits());
+        // Expect: 2 entries for 100 permits
+    }
+
+    // The clock starts 700ms into a window: both limiters allow 5, but only the aligned one resets at 1000ms
+    private static void testEpochFixedWindow() {
+        System.out.println("\n--- 18. Epoch-aligned Fixed Window (5 reqs / 1000ms, first request at 700ms) ---");
+        ManualTimeSource clock = new ManualTimeSource(700);
+        EpochFixedWindow aligned = new EpochFixedWindow(5, 1000, clock, 16);
+        FixedWindowRL perUser = new FixedWindowRL(5, 1000, clock);
+
+        int alignedAllowed = 0;
+        int perUserAllowed = 0;
+        int longKeyAllowed = 0;
+        long alignedGrant = RefundableRateLimiter.DENIED;
+        for (int i = 0; i < 1_000_000; i++) {
+            long grant = aligned.grant(USER_ID);
+            if (grant != RefundableRateLimiter.DENIED) {
+                alignedAllowed++;
+                alignedGrant = grant;
+            }
+            perUserAllowed += perUser.allowRequest(USER_ID) ? 1 : 0;
+            longKeyAllowed += aligned.allowRequest(123L) ? 1 : 0;
+        }
+        System.out.printf("  -> @700ms, 1M requests: aligned %d, per-user %d, long key %d allowed\n",
+                alignedAllowed, perUserAllowed, longKeyAllowed);
+        // Expect: 5 5 5; the 999,995 denials wrote nothing, so one refund frees exactly one permit
+
+        aligned.refund(USER_ID, alignedGrant);
+        System.out.printf("  -> after one refund: %b %b\n", aligned.allowRequest(USER_ID), aligned.allowRequest(USER_ID));
+        // Expect: true false
+
+        clock.set(1000);
+        System.out.printf("  -> @1000ms: aligned %b, per-user %b, long key %b\n", aligned.allowRequest(USER_ID),
+                perUser.allowRequest(USER_ID), aligned.allowRequest(123L));
+        // Expect: true false true (the per-user window runs until 1700ms)
+
+        for (int i = 0; i < 4; i++) {
+            aligned.allowRequest(USER_ID);
+        }
+        aligned.refund(USER_ID, alignedGrant); // granted at 700ms, in the window that has ended
+        System.out.println("  -> late refund of a 700ms grant, then a 6th request at 1000ms: " + aligned.allowRequest(USER_ID));
+        // Expect: false
+    }
+
+    // One key hammers a bucket that refills a token every 500ms; only the first denial reaches the bucket
+    private static void testDenyCache() throws InterruptedException {
+        System.out.println("\n--- 19. Deny cache in front of a Token Bucket (capacity 5, 2 tokens/sec) ---");
+        ManualTimeSource clock = new ManualTimeSource(0);
+        TokenBucket bucket = new TokenBucket(5, 2.0, clock);
+        DenyCachingRateLimiter cached = new DenyCachingRateLimiter(bucket, clock);
+
+        int allowed = 0;
+        for (int i = 0; i < 1_000_000; i++) {
+            allowed += cached.allowRequest(USER_ID) ? 1 : 0;
+        }
+        System.out.printf("  -> @0ms, 1M requests: %d allowed, %d denied from the cache, retry after %dms\n",
+                allowed, cached.cachedDenials(), bucket.retryAfterMillis(USER_ID));
+        // Expect: 5 allowed, 999,994 cached denials (one went to the bucket), retry after 500ms
+
+        clock.set(499);
+        boolean early = cached.allowRequest(USER_ID);
+        clock.set(500);
+        boolean onTime = cached.allowRequest(USER_ID);
+        System.out.printf("  -> @499ms: %b, @500ms: %b\n", early, onTime);
+        // Expect: false true (the cache lets the key through the moment the bucket would)
+
+        cached.allowRequest(USER_ID); // denied by the bucket again, cached until 1000ms
+        long before = cached.cachedDenials();
+        String[] batch = {USER_ID, "other", USER_ID};
+        boolean[] out = new boolean[batch.length];
+        cached.allowRequests(batch, out);
+        System.out.printf("  -> batch [%s, other, %s]: %b %b %b, %d from the cache\n", USER_ID, USER_ID,
+                out[0], out[1], out[2], cached.cachedDenials() - before);
+        // Expect: false true false, 2 from the cache (only "other" reaches the bucket)
+
+        // A virtual thread per request, as HttpDecisionServer runs them: every one finds the cached denial
+        before = cached.cachedDenials();
+        for (int i = 0; i < 100; i++) {
+            Thread.ofVirtual().start(() -> cached.allowRequest(USER_ID)).join();
+        }
+        System.out.printf("  -> 100 requests on fresh threads: %d from the cache\n", cached.cachedDenials() - before);
+        // Expect: 100
+
+        // Window counters estimate too: 5 requests at 0ms still weigh 5.0 at 1000ms, 4.995 at 1001ms
+        clock.set(2000);
+        SlidingWindowCounter counter = new SlidingWindowCounter(5, 1000, clock);
+        CountMinSketchLimiter sketch = new CountMinSketchLimiter(5, 1000, CountMinSketchLimiter.DEFAULT_EPSILON,
+                CountMinSketchLimiter.DEFAULT_DELTA, 0, clock);
+        for (int i = 0; i < 6; i++) {
+            counter.allowRequest(USER_ID);
+            sketch.allowRequest(USER_ID);
+        }
+        System.out.printf("  -> retry after: window counter %dms, sketch %dms\n",
+                counter.retryAfterMillis(USER_ID), sketch.retryAfterMillis(USER_ID));
+        // Expect: 1001ms for both
+    }
+
+    // 10,000 well-behaved IPs send 3 requests each, one abuser sends 1,000; a second, far too small sketch shows the error direction
+    private static void testSketchLimiter() {
+        System.out.println("\n--- 20. Count-min sketch limiter (5 reqs / 1000ms, 10,000 IPs + 1 abuser) ---");
+        ManualTimeSource clock = new ManualTimeSource(0);
+        CountMinSketchLimiter sketch = new CountMinSketchLimiter(5, 1000, CountMinSketchLimiter.DEFAULT_EPSILON,
+                CountMinSketchLimiter.DEFAULT_DELTA, CountMinSketchLimiter.DEFAULT_HEAVY_HITTERS, clock);
+        CountMinSketchLimiter tiny = new CountMinSketchLimiter(5, 1000, 0.01, 0.1, 0, clock);
+
+        int denied = 0;
+        int tinyDenied = 0;
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 10_000; i++) {
+                String ip = "10.0." + (i >> 8) + "." + (i & 255);
+                denied += sketch.allowRequest(ip) ? 0 : 1;
+                tinyDenied += tiny.allowRequest(ip) ? 0 : 1;
+            }
+        }
+        int abuserAllowed = 0;
+        int tinyAbuserAllowed = 0;
+        for (int i = 0; i < 1000; i++) {
+            abuserAllowed += sketch.allowRequest("203.0.113.7") ? 1 : 0;
+            tinyAbuserAllowed += tiny.allowRequest("203.0.113.7") ? 1 : 0;
+        }
+        System.out.printf("  -> %,d-byte sketch: %d of 30,000 good requests denied, abuser %d allowed, %d key promoted\n",
+                sketch.sketchBytes(), denied, abuserAllowed, sketch.promotedKeys());
+        // Expect: 2,621,440 bytes, 0 denied, abuser 5 allowed, 1 key promoted
+        System.out.printf("  -> %,d-byte sketch: %,d of 30,000 good requests denied, abuser %d allowed\n",
+                tiny.sketchBytes(), tinyDenied, tinyAbuserAllowed);
+        // Expect: most denied early and the abuser at most 5 (an undersized sketch denies early, never over-admits)
+
+        clock.set(2000);
+        System.out.printf("  -> @2000ms abuser: %b, promoted keys after both windows: %d\n",
+                sketch.allowRequest("203.0.113.7"), sketch.promotedKeys());
+        // Expect: true; the abuser is still decided exactly until the expiry wheel demotes it (1)
+    }
+
+    // Throughput comparison: 8 hot keys, unlimited refill so every call walks the allow path
+    private static void testTokenBucketScaling() throws InterruptedException {
+        System.out.println("\n--- Throughput: Token Bucket scaling (8 hot keys, 200ms per run) ---");
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            long locking = measureThroughput(new TokenBucket(1000, 1_000_000.0), threads);
+            long lockFree = measureThroughput(new LockFreeTokenBucket(1000, 1_000_000.0), threads);
+            System.out.printf("  threads=%2d  synchronized=%,12d ops/s  lock-free=%,12d ops/s\n",
+                    threads, locking, lockFree);
+        }
+    }
+
+    private static long measureThroughput(RateLimiter limiter, int threads) throws InterruptedException {
+        final long RUN_MS = 200;
+        String[] keys = {"hot-0", "hot-1", "hot-2", "hot-3", "hot-4", "hot-5", "hot-6", "hot-7"};
+        java.util.concurrent.atomic.LongAdder ops = new java.util.concurrent.atomic.LongAdder();
+        java.util.concurrent.CountDownLatch start = new java.util.concurrent.CountDownLatch(1);
+        long[] deadline = new long[1];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long count = 0;
+                while (System.nanoTime() < deadline[0]) {
+                    limiter.allowRequest(keys[(int) (count & 7)]);
+                    count++;
+                }
+                ops.add(count);
+            });
+            workers[t].start();
+        }
+        deadline[0] = System.nanoTime() + RUN_MS * 1_000_000;
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return ops.sum() * 1000 / RUN_MS;
     }
 }
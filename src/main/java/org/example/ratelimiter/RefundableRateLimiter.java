@@ -0,0 +1,40 @@
+package org.example.ratelimiter;
+
+/**
+ * Rate limiter that can give back a permit it has granted.
+ * <p>
+ * {@link HierarchicalRateLimiter} uses this to undo the tiers that allowed a request
+ * when a later tier denies it, so a denied request consumes nothing anywhere.
+ */
+public interface RefundableRateLimiter extends RateLimiter {
+
+    /**
+     * What {@link #grant} returns for a denied request.
+     */
+    long DENIED = Long.MIN_VALUE;
+
+    /**
+     * Decides one request exactly like {@link #allowRequest(String)}, and names the grant
+     * so that it can be refunded.
+     * <p>
+     * Windowed limiters return the window the permit was counted in; limiters whose
+     * capacity does not restart per window return 0.
+     *
+     * @return the token to hand to {@link #refund}, or {@link #DENIED}
+     */
+    default long grant(String userId) {
+        return allowRequest(userId) ? 0 : DENIED;
+    }
+
+    /**
+     * Gives back the permit taken by a request that {@link #grant} allowed, at most once
+     * per grant, from any thread.
+     * <p>
+     * If the key's state has moved on in the meantime (the grant's window ended, its
+     * bucket refilled, or it was reaped) the refund is dropped; it never adds capacity
+     * beyond what the limiter would have without the request.
+     *
+     * @param grant the token {@link #grant} returned for the request
+     */
+    void refund(String userId, long grant);
+}
@@ -0,0 +1,163 @@
+package org.example.ratelimiter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Client for {@link BinaryDecisionServer}.
+ * <p>
+ * {@link #allowRequest} and {@link #allowRequests} make one round trip each. For
+ * throughput, {@link #send} frames without flushing and {@link #receive} reads responses
+ * in the same order, so a caller can keep many batches in flight on one connection.
+ * A broken connection fails the current call with an {@link UncheckedIOException} and is
+ * reopened on the next one; responses to frames sent before the failure are lost.
+ */
+public final class RemoteRateLimiter implements RateLimiter, AutoCloseable {
+    private final String host;
+    private final int port;
+
+    // Guarded by this
+    private Socket socket;
+    private DataInputStream in;
+    private DataOutputStream out;
+    private int nextRequestId;
+
+    public RemoteRateLimiter(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    @Override
+    public boolean allowRequest(String userId) {
+        boolean[] out = new boolean[1];
+        allowRequests(new String[]{userId}, out);
+        return out[0];
+    }
+
+    @Override
+    public synchronized void allowRequests(String[] userIds, boolean[] out) {
+        KeyBatch.checkLengths(userIds, out);
+        int requestId = send(userIds);
+        flush();
+        if (receive(out) != requestId) {
+            disconnect();
+            throw new IllegalStateException("Response out of order; were frames sent with send() left unread?");
+        }
+    }
+
+    /**
+     * Writes one request frame to the connection buffer without waiting for the answer.
+     *
+     * @return the frame's request id, echoed by the matching {@link #receive}
+     */
+    public synchronized int send(String[] userIds) {
+        if (userIds.length > 0xFFFF) {
+            throw new IllegalArgumentException("At most 65535 keys per frame: " + userIds.length);
+        }
+        byte[][] encoded = new byte[userIds.length][];
+        int frameLength = 6;
+        for (int i = 0; i < userIds.length; i++) {
+            encoded[i] = userIds[i].getBytes(StandardCharsets.UTF_8);
+            if (encoded[i].length > 0xFFFF) {
+                throw new IllegalArgumentException("Key longer than 65535 UTF-8 bytes");
+            }
+            frameLength += 2 + encoded[i].length;
+        }
+        if (frameLength > BinaryDecisionServer.MAX_FRAME_BYTES) {
+            throw new IllegalArgumentException("Frame larger than " + BinaryDecisionServer.MAX_FRAME_BYTES + " bytes");
+        }
+
+        int requestId = nextRequestId++;
+        try {
+            if (socket == null) {
+                connect();
+            }
+            out.writeInt(frameLength);
+            out.writeInt(requestId);
+            out.writeShort(userIds.length);
+            for (byte[] key : encoded) {
+                out.writeShort(key.length);
+                out.write(key);
+            }
+            return requestId;
+        } catch (IOException e) {
+            throw failed(e);
+        }
+    }
+
+    /**
+     * Sends every frame buffered by {@link #send}.
+     */
+    public synchronized void flush() {
+        try {
+            if (out != null) {
+                out.flush();
+            }
+        } catch (IOException e) {
+            throw failed(e);
+        }
+    }
+
+    /**
+     * Reads the next response; {@code out} must be at least as long as that frame's batch.
+     *
+     * @return the request id of the frame it answers
+     */
+    public synchronized int receive(boolean[] out) {
+        if (in == null) {
+            throw new IllegalStateException("No frames in flight");
+        }
+        try {
+            int requestId = in.readInt();
+            int count = in.readUnsignedShort();
+            if (out.length < count) {
+                throw new IllegalArgumentException("Output array is shorter than the batch: " + out.length + " < " + count);
+            }
+            for (int b = 0; b < count; b += 8) {
+                int bits = in.readUnsignedByte();
+                for (int i = b, end = Math.min(count, b + 8); i < end; i++) {
+                    out[i] = (bits & (1 << (i & 7))) != 0;
+                }
+            }
+            return requestId;
+        } catch (IOException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        disconnect();
+    }
+
+    private void connect() throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+    }
+
+    private UncheckedIOException failed(IOException e) {
+        disconnect();
+        return new UncheckedIOException("Decision server at " + host + ":" + port + " failed", e);
+    }
+
+    private void disconnect() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // nothing left to release
+            }
+            socket = null;
+            in = null;
+            out = null;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package org.example.ratelimiter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Client for {@link StateStoreServer}.
+ * <p>
+ * Keeps a small pool of connections, each with one request in flight at a time, so a
+ * slow round trip for one key does not hold up lease refills for the others. Connects
+ * and reads are bounded by timeouts: a store that hangs fails the call with an
+ * {@link UncheckedIOException} instead of blocking the caller for good. A broken or
+ * timed-out connection is closed, since a late answer would otherwise be read as the
+ * reply to the next request, and is reopened on its next use.
+ */
+public final class RemoteStateStore implements RateLimitStateStore, AutoCloseable {
+    private static final int DEFAULT_CONNECTIONS = 4;
+    private static final int DEFAULT_TIMEOUT_MILLIS = 1000;
+
+    private static final class Connection {
+        Socket socket;
+        DataInputStream in;
+        DataOutputStream out;
+    }
+
+    private final String host;
+    private final int port;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final Connection[] connections;
+    private final BlockingQueue<Connection> idle;
+
+    public RemoteStateStore(String host, int port) {
+        this(host, port, DEFAULT_CONNECTIONS, DEFAULT_TIMEOUT_MILLIS, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param connections          most round trips in flight at once
+     * @param connectTimeoutMillis how long to wait for a connection to open
+     * @param readTimeoutMillis    how long to wait for the store's answer
+     */
+    public RemoteStateStore(String host, int port, int connections, int connectTimeoutMillis, int readTimeoutMillis) {
+        if (connections <= 0) {
+            throw new IllegalArgumentException("Connections must be greater than zero.");
+        }
+        if (connectTimeoutMillis <= 0 || readTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Timeouts must be greater than zero.");
+        }
+        this.host = host;
+        this.port = port;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.connections = new Connection[connections];
+        this.idle = new ArrayBlockingQueue<>(connections);
+        for (int i = 0; i < connections; i++) {
+            this.connections[i] = new Connection();
+            idle.add(this.connections[i]);
+        }
+    }
+
+    @Override
+    public long acquire(String key, long windowIndex, long requested, long limit, long ttlMillis) {
+        Connection connection = take();
+        // Uncontended while the pool hands the connection to one caller; close() waits on it
+        synchronized (connection) {
+            try {
+                if (connection.socket == null) {
+                    connect(connection);
+                }
+                connection.out.writeUTF(key);
+                connection.out.writeLong(windowIndex);
+                connection.out.writeLong(requested);
+                connection.out.writeLong(limit);
+                connection.out.writeLong(ttlMillis);
+                connection.out.flush();
+                return connection.in.readLong();
+            } catch (IOException e) {
+                disconnect(connection);
+                throw new UncheckedIOException("State store at " + host + ":" + port + " failed", e);
+            } finally {
+                idle.add(connection);
+            }
+        }
+    }
+
+    // Calls in flight finish first; a later call reconnects
+    @Override
+    public void close() {
+        for (Connection connection : connections) {
+            synchronized (connection) {
+                disconnect(connection);
+            }
+        }
+    }
+
+    // A busy pool frees up within one read timeout
+    private Connection take() {
+        try {
+            return idle.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for a state store connection", e);
+        }
+    }
+
+    private void connect(Connection connection) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+            socket.setSoTimeout(readTimeoutMillis);
+            socket.setTcpNoDelay(true);
+            connection.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            connection.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            connection.socket = socket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private static void disconnect(Connection connection) {
+        if (connection.socket != null) {
+            try {
+                connection.socket.close();
+            } catch (IOException ignored) {
+                // nothing left to release
+            }
+            connection.socket = null;
+            connection.in = null;
+            connection.out = null;
+        }
+    }
+}
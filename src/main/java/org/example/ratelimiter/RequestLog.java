@@ -0,0 +1,161 @@
+package org.example.ratelimiter;
+
+import java.util.Arrays;
+
+/**
+ * Per-user log of accepted request timestamps, oldest first.
+ * <p>
+ * Timestamps live in a primitive {@code long[]} ring buffer, so accepting, pruning and
+ * denying never box a {@code Long} or allocate a list node. The ring starts small and
+ * doubles until it reaches {@code maxSize}, the most entries the owning limiter can ever
+ * keep; after that it is never reallocated.
+ * <p>
+ * An entry may stand for several permits taken at once. Logs that only ever hold
+ * single-permit entries carry no weights at all; the first heavier entry allocates an
+ * {@code int[]} parallel to the ring, so a 50-permit request is one entry, not 50.
+ * {@code maxSize} bounds the total weight, which also bounds the entry count.
+ */
+public class RequestLog {
+    static final int MAX_SIZE_LIMIT = 1 << 30;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int maxSize;
+    private long[] ring;
+    private int head;  // index of the oldest timestamp
+    private int size;
+    private int[] weights; // null while every entry weighs one permit
+    private int permits;   // total weight of the entries
+    boolean evicted; // set under the log's lock once the expiry wheel has removed it
+
+    public RequestLog(long maxSize) {
+        this.maxSize = checkMaxSize(maxSize);
+        this.ring = new long[Math.min(this.maxSize, INITIAL_CAPACITY)];
+    }
+
+    /**
+     * Owning limiters call this from their constructors, so a limit no log can hold fails
+     * there rather than on each key's first request.
+     */
+    static int checkMaxSize(long maxSize) {
+        if (maxSize < 0 || maxSize > MAX_SIZE_LIMIT) {
+            throw new IllegalArgumentException("Log size must be between 0 and " + MAX_SIZE_LIMIT + ": " + maxSize);
+        }
+        return (int) maxSize;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of permits the entries stand for
+     */
+    int permits() {
+        return permits;
+    }
+
+    long oldest() {
+        return ring[head];
+    }
+
+    long newest() {
+        return ring[index(size - 1)];
+    }
+
+    void removeOldest() {
+        permits -= weight(head);
+        head = index(1);
+        size--;
+    }
+
+    void removeNewest() {
+        permits -= weight(index(size - 1));
+        size--;
+    }
+
+    /**
+     * Takes one permit off the oldest entry, removing it once it has none left.
+     */
+    void removeOldestPermit() {
+        if (weights != null && weights[head] > 1) {
+            weights[head]--;
+            permits--;
+        } else {
+            removeOldest();
+        }
+    }
+
+    /**
+     * Takes one permit off the newest entry, removing it once it has none left.
+     */
+    void removeNewestPermit() {
+        int newest = index(size - 1);
+        if (weights != null && weights[newest] > 1) {
+            weights[newest]--;
+            permits--;
+        } else {
+            removeNewest();
+        }
+    }
+
+    /**
+     * Appends a single-permit entry; callers check {@link #permits()} against
+     * {@code maxSize} first.
+     */
+    void add(long timestamp) {
+        add(timestamp, 1);
+    }
+
+    /**
+     * Appends an entry standing for {@code weight} permits; callers check
+     * {@link #permits()} against {@code maxSize} first.
+     */
+    void add(long timestamp, int weight) {
+        if (size == ring.length) {
+            grow();
+        }
+        int i = index(size);
+        ring[i] = timestamp;
+        if (weights != null) {
+            weights[i] = weight;
+        } else if (weight != 1) {
+            weights = new int[ring.length];
+            Arrays.fill(weights, 1);
+            weights[i] = weight;
+        }
+        size++;
+        permits += weight;
+    }
+
+    private int weight(int i) {
+        return weights == null ? 1 : weights[i];
+    }
+
+    private int index(int offset) {
+        int i = head + offset;
+        return i < ring.length ? i : i - ring.length;
+    }
+
+    private void grow() {
+        if (ring.length == maxSize) {
+            throw new IllegalStateException("Request log is full: " + maxSize);
+        }
+        int newLength = (int) Math.min(maxSize, 2L * ring.length);
+        int firstPart = Math.min(size, ring.length - head);
+        long[] larger = new long[newLength];
+        System.arraycopy(ring, head, larger, 0, firstPart);
+        System.arraycopy(ring, 0, larger, firstPart, size - firstPart);
+        if (weights != null) {
+            int[] largerWeights = new int[newLength];
+            System.arraycopy(weights, head, largerWeights, 0, firstPart);
+            System.arraycopy(weights, 0, largerWeights, firstPart, size - firstPart);
+            weights = largerWeights;
+        }
+        ring = larger;
+        head = 0;
+    }
+}
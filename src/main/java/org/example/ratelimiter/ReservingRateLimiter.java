@@ -0,0 +1,60 @@
+package org.example.ratelimiter;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate limiter that can hand out a permit ahead of time.
+ * <p>
+ * {@link #reserve} takes the next permit immediately and answers the exact number of
+ * milliseconds until it may be used, computed from the limiter's state rather than by
+ * polling. The blocking and async acquire methods are built on it: callers sleep once
+ * for exactly that long ({@link Thread#sleep} unmounts a virtual thread rather than
+ * pinning its carrier), and {@link #acquireAsync} completes from a delayed executor.
+ * <p>
+ * A reservation is a commitment: a caller interrupted while waiting has still used
+ * its permit.
+ */
+public interface ReservingRateLimiter extends RateLimiter {
+
+    /**
+     * Reserves one permit for {@code userId} if it becomes available within {@code maxWaitMillis}.
+     *
+     * @return milliseconds to wait before using the permit (0 = now), or -1 if the wait
+     * would exceed {@code maxWaitMillis}, in which case nothing was reserved
+     */
+    long reserve(String userId, long maxWaitMillis);
+
+    /**
+     * Blocks until a permit for {@code userId} is available.
+     */
+    default void acquire(String userId) throws InterruptedException {
+        long waitMillis = reserve(userId, Long.MAX_VALUE);
+        TimeUnit.MILLISECONDS.sleep(waitMillis);
+    }
+
+    /**
+     * Waits for a permit only if one becomes available within the timeout.
+     *
+     * @return false, without waiting, if no permit would be available in time
+     */
+    default boolean tryAcquire(String userId, long timeout, TimeUnit unit) throws InterruptedException {
+        long waitMillis = reserve(userId, unit.toMillis(timeout));
+        if (waitMillis < 0) {
+            return false;
+        }
+        TimeUnit.MILLISECONDS.sleep(waitMillis);
+        return true;
+    }
+
+    /**
+     * @return a future completed once the permit for {@code userId} may be used
+     */
+    default CompletableFuture<Void> acquireAsync(String userId) {
+        long waitMillis = reserve(userId, Long.MAX_VALUE);
+        if (waitMillis == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(waitMillis, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,18 @@
+package org.example.ratelimiter;
+
+/**
+ * Rate limiter that can tell a denied caller when to come back.
+ * <p>
+ * {@link DenyCachingRateLimiter} uses this to remember a denial for exactly as long as
+ * it is certain to hold.
+ */
+public interface RetryAfterRateLimiter extends RateLimiter {
+
+    /**
+     * Milliseconds until a one-permit {@link #allowRequest} for {@code userId} can next be
+     * allowed, assuming no other requests for the key in the meantime; 0 if it could be
+     * allowed now. Never later than the true answer, and never creates state for an
+     * unknown key.
+     */
+    long retryAfterMillis(String userId);
+}
@@ -1,44 +1,166 @@
 package org.example.ratelimiter;
 
-import java.util.Deque;
-import java.util.LinkedList;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
-public class SlidingWindow implements RateLimiter {
+public class SlidingWindow implements RefundableRateLimiter, WeightedRateLimiter, RetryAfterRateLimiter {
     private final long maxRequests;
     private final long windowSizeMillis;
-    private Map<String, Deque<Long>> requestLogs = new ConcurrentHashMap<>();
+    private Map<String, RequestLog> requestLogs = new ConcurrentHashMap<>();
+    private final ExpiryWheel expiryWheel = ExpiryWheel.shared();
+    private final TimeSource timeSource;
 
     public SlidingWindow(long maxRequests,  long windowSizeMillis) {
+        this(maxRequests, windowSizeMillis, TimeSource.monotonic());
+    }
+
+    public SlidingWindow(long maxRequests,  long windowSizeMillis, TimeSource timeSource) {
+        RequestLog.checkMaxSize(maxRequests);
         this.maxRequests = maxRequests;
         this.windowSizeMillis = windowSizeMillis;
+        this.timeSource = timeSource;
     }
 
     @Override
     public boolean allowRequest(String userId) {
-        long currentTime = System.currentTimeMillis();
+        long currentTime = timeSource.millis();
 
-        // Get or create the user's log
-        Deque<Long> timestamps = requestLogs.computeIfAbsent(userId, k -> new LinkedList<>());
+        while (true) {
+            // Get or create the user's log
+            RequestLog timestamps = lookup(userId);
 
 
-        // synchronized only the USER's specific log objects
-        synchronized (timestamps) {
+            // synchronized only the USER's specific log objects
+            synchronized (timestamps) {
+                if (timestamps.evicted) {
+                    // Reaped between lookup and lock; pick up the fresh log
+                    continue;
+                }
+                return tryAcquire(timestamps, currentTime, 1);
+            }
+        }
+    }
 
-            while (!timestamps.isEmpty() && currentTime - timestamps.peekFirst() >= windowSizeMillis) {
-                //remove the expired timestamps
-                timestamps.pollFirst();
+    @Override
+    public boolean allowRequest(String userId, int permits) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("Permits must be at least 1: " + permits);
+        }
+        long currentTime = timeSource.millis();
+
+        while (true) {
+            RequestLog timestamps = lookup(userId);
+
+            synchronized (timestamps) {
+                if (timestamps.evicted) {
+                    continue;
+                }
+                return tryAcquire(timestamps, currentTime, permits);
             }
+        }
+    }
 
-            if(timestamps.size() < maxRequests) {
-                timestamps.addLast(currentTime);
-                //accepted
-                return  true;
+    @Override
+    public void allowRequests(String[] userIds, boolean[] out) {
+        long currentTime = timeSource.millis();
+        KeyBatch batch = KeyBatch.group(userIds, out);
+
+        for (int i = 0; i < userIds.length; i++) {
+            if (batch.isDuplicate(i)) {
+                continue;
+            }
+            while (true) {
+                RequestLog timestamps = lookup(userIds[i]);
+
+                synchronized (timestamps) {
+                    if (timestamps.evicted) {
+                        continue;
+                    }
+                    for (int j = i; j >= 0; j = batch.next(j)) {
+                        out[j] = tryAcquire(timestamps, currentTime, 1);
+                    }
+                    break;
+                }
             }
         }
+    }
+
+    // Drops a permit from the newest entry; one added by a concurrent request instead of ours is at most as new
+    @Override
+    public void refund(String userId, long grant) {
+        RequestLog timestamps = requestLogs.get(userId);
+        if (timestamps == null) {
+            return;
+        }
+        synchronized (timestamps) {
+            if (!timestamps.evicted && !timestamps.isEmpty()) {
+                timestamps.removeNewestPermit();
+            }
+        }
+    }
+
+    // The oldest entry frees at least one permit when it slides out
+    @Override
+    public long retryAfterMillis(String userId) {
+        RequestLog timestamps = requestLogs.get(userId);
+        if (timestamps == null) {
+            return 0;
+        }
+        long currentTime = timeSource.millis();
+        synchronized (timestamps) {
+            while (!timestamps.isEmpty() && currentTime - timestamps.oldest() >= windowSizeMillis) {
+                timestamps.removeOldest();
+            }
+            if (timestamps.evicted || timestamps.permits() < maxRequests) {
+                return 0;
+            }
+            return timestamps.oldest() + windowSizeMillis - currentTime;
+        }
+    }
+
+    private RequestLog lookup(String userId) {
+        RequestLog timestamps = requestLogs.get(userId);
+        if (timestamps == null) {
+            // Only new users pay for the capturing lambda
+            timestamps = requestLogs.computeIfAbsent(userId, k -> track(k, new RequestLog(maxRequests)));
+        }
+        return timestamps;
+    }
+
+    // Caller holds the log's lock
+    private boolean tryAcquire(RequestLog timestamps, long currentTime, int permits) {
+        while (!timestamps.isEmpty() && currentTime - timestamps.oldest() >= windowSizeMillis) {
+            //remove the expired timestamps
+            timestamps.removeOldest();
+        }
+
+        if(timestamps.permits() + (long) permits <= maxRequests) {
+            timestamps.add(currentTime, permits);
+            //accepted
+            return  true;
+        }
 
         //Deny
         return false;
     }
+
+    private RequestLog track(String userId, RequestLog log) {
+        expiryWheel.schedule(windowSizeMillis, () -> expire(userId, log));
+        return log;
+    }
+
+    // Once the newest timestamp has slid out of the window the log is as good as empty
+    private long expire(String userId, RequestLog log) {
+        synchronized (log) {
+            if (!log.isEmpty()) {
+                long remaining = log.newest() + windowSizeMillis - timeSource.millis();
+                if (remaining > 0) {
+                    return remaining;
+                }
+            }
+            log.evicted = true;
+            requestLogs.remove(userId, log);
+            return 0;
+        }
+    }
 }
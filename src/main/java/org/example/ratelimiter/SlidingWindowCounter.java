@@ -0,0 +1,247 @@
+package org.example.ratelimiter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sliding window approximated from two fixed-window counters.
+ * <p>
+ * Time is cut into fixed windows of {@code windowSizeMillis}. A request at fraction
+ * {@code f} into the current window sees the estimate
+ * <pre>
+ *   previousCount * (1 - f) + currentCount
+ * </pre>
+ * i.e. it assumes the previous window's requests were spread evenly, and counts the part
+ * of them that still overlaps the sliding window ending now. The request is accepted while
+ * the estimate is below {@code maxRequests}; denied requests are not counted.
+ * <p>
+ * Per user this keeps two counters and a window index regardless of the limit, where
+ * {@link SlidingWindow} keeps one timestamp per accepted request and prunes in O(n).
+ * <p>
+ * Accuracy trade-off against the exact log: the estimate is exact when traffic in the
+ * previous window was uniform. Traffic bunched at the end of the previous window is
+ * under-estimated, so an adversarial client can get up to roughly {@code 2 * maxRequests}
+ * accepted inside one true sliding window (a full burst just before a boundary, then the
+ * estimate decays to zero across the next window). Traffic bunched at the start is
+ * over-estimated and denied early. For ordinary traffic the error is small, but endpoints
+ * that need a hard bound should use {@link SlidingWindow}.
+ */
+public class SlidingWindowCounter implements RefundableRateLimiter, RetryAfterRateLimiter {
+    private final long maxRequests;
+    private final long windowSizeMillis;
+    private final Map<String, WindowCounter> userCounters = new ConcurrentHashMap<>();
+    private final ExpiryWheel expiryWheel = ExpiryWheel.shared();
+    private final TimeSource timeSource;
+
+    public SlidingWindowCounter(long maxRequests, long windowSizeMillis) {
+        this(maxRequests, windowSizeMillis, TimeSource.monotonic());
+    }
+
+    public SlidingWindowCounter(long maxRequests, long windowSizeMillis, TimeSource timeSource) {
+        if (windowSizeMillis <= 0) {
+            throw new IllegalArgumentException("Window size must be greater than zero.");
+        }
+        this.maxRequests = maxRequests;
+        this.windowSizeMillis = windowSizeMillis;
+        this.timeSource = timeSource;
+    }
+
+    @Override
+    public boolean allowRequest(String userId) {
+        return grant(userId) != DENIED;
+    }
+
+    // The grant is named by the window it was counted in
+    @Override
+    public long grant(String userId) {
+        long currentTime = timeSource.millis();
+        long windowIndex = Math.floorDiv(currentTime, windowSizeMillis);
+
+        while (true) {
+            WindowCounter counter = lookup(userId, windowIndex);
+
+            synchronized (counter) {
+                if (counter.evicted) {
+                    // Reaped between lookup and lock; pick up the fresh counter
+                    continue;
+                }
+                return tryAcquire(counter, currentTime, windowIndex) ? counter.windowIndex : DENIED;
+            }
+        }
+    }
+
+    @Override
+    public void allowRequests(String[] userIds, boolean[] out) {
+        long currentTime = timeSource.millis();
+        long windowIndex = Math.floorDiv(currentTime, windowSizeMillis);
+        KeyBatch batch = KeyBatch.group(userIds, out);
+
+        for (int i = 0; i < userIds.length; i++) {
+            if (batch.isDuplicate(i)) {
+                continue;
+            }
+            while (true) {
+                WindowCounter counter = lookup(userIds[i], windowIndex);
+
+                synchronized (counter) {
+                    if (counter.evicted) {
+                        continue;
+                    }
+                    for (int j = i; j >= 0; j = batch.next(j)) {
+                        out[j] = tryAcquire(counter, currentTime, windowIndex);
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void refund(String userId, long grant) {
+        WindowCounter counter = userCounters.get(userId);
+        if (counter == null) {
+            return;
+        }
+        synchronized (counter) {
+            if (counter.evicted) {
+                return;
+            }
+            roll(counter, Math.floorDiv(timeSource.millis(), windowSizeMillis));
+            // After a boundary the permit was counted in what is now the previous window
+            if (counter.windowIndex == grant && counter.currentCount > 0) {
+                counter.currentCount--;
+            } else if (counter.windowIndex == grant + 1 && counter.previousCount > 0) {
+                counter.previousCount--;
+            }
+        }
+    }
+
+    @Override
+    public long retryAfterMillis(String userId) {
+        WindowCounter counter = userCounters.get(userId);
+        if (counter == null) {
+            return 0;
+        }
+        long currentTime = timeSource.millis();
+        synchronized (counter) {
+            if (counter.evicted) {
+                return 0;
+            }
+            return retryAfterMillis(counter, currentTime, windowSizeMillis, maxRequests);
+        }
+    }
+
+    /**
+     * {@link RetryAfterRateLimiter#retryAfterMillis} for a counter, without rolling it.
+     * Caller holds the counter's lock.
+     */
+    static long retryAfterMillis(WindowCounter counter, long currentTime, long windowSizeMillis, long maxRequests) {
+        long windowIndex = Math.floorDiv(currentTime, windowSizeMillis);
+        if (windowIndex == counter.windowIndex) {
+            return retryAfterMillis(counter.previousCount, counter.currentCount, currentTime, windowSizeMillis, maxRequests);
+        }
+        if (windowIndex == counter.windowIndex + 1) {
+            return retryAfterMillis(counter.currentCount, 0, currentTime, windowSizeMillis, maxRequests);
+        }
+        // Two windows on nothing overlaps; a clock gone backwards is not worth predicting
+        return 0;
+    }
+
+    /**
+     * Milliseconds until the estimate drops below {@code maxRequests}, given the counts of
+     * the window {@code currentTime} falls in and of the one before it.
+     */
+    static long retryAfterMillis(long previousCount, long currentCount, long currentTime, long windowSizeMillis,
+                                 long maxRequests) {
+        long offset = Math.floorMod(currentTime, windowSizeMillis);
+        long allowedAt = firstAllowedOffset(previousCount, currentCount, offset, windowSizeMillis, maxRequests);
+        if (allowedAt >= 0) {
+            return allowedAt - offset;
+        }
+        // The current count becomes the previous one, and decays across the next window
+        allowedAt = firstAllowedOffset(currentCount, 0, 0, windowSizeMillis, maxRequests);
+        return allowedAt >= 0 ? windowSizeMillis - offset + allowedAt : 2 * windowSizeMillis - offset;
+    }
+
+    // Smallest offset from 'from' on, within one window, whose estimate admits a request; -1 if none
+    private static long firstAllowedOffset(long previousCount, long currentCount, long from, long windowSizeMillis,
+                                           long maxRequests) {
+        if (currentCount >= maxRequests) {
+            return -1;
+        }
+        if (previousCount == 0) {
+            return from;
+        }
+        // previous * (1 - o / W) + current < max, solved for o; then stepped onto the exact millisecond
+        double solved = windowSizeMillis * (1.0 - (double) (maxRequests - currentCount) / previousCount);
+        long offset = Math.max(from, Math.min(windowSizeMillis, (long) solved));
+        while (offset > from && estimate(previousCount, currentCount, offset - 1, windowSizeMillis) < maxRequests) {
+            offset--;
+        }
+        while (offset < windowSizeMillis && estimate(previousCount, currentCount, offset, windowSizeMillis) >= maxRequests) {
+            offset++;
+        }
+        return offset < windowSizeMillis ? offset : -1;
+    }
+
+    private WindowCounter lookup(String userId, long windowIndex) {
+        WindowCounter counter = userCounters.get(userId);
+        if (counter == null) {
+            // Only new users pay for the capturing lambda
+            counter = userCounters.computeIfAbsent(userId, k -> track(k, new WindowCounter(windowIndex)));
+        }
+        return counter;
+    }
+
+    // Caller holds the counter's lock
+    private boolean tryAcquire(WindowCounter counter, long currentTime, long windowIndex) {
+        roll(counter, windowIndex);
+
+        if (estimate(counter.previousCount, counter.currentCount, currentTime, windowSizeMillis) < maxRequests) {
+            counter.currentCount++;
+            return true;
+        }
+        return false;
+    }
+
+    // Portion of the previous window that still overlaps the sliding window, plus the current one
+    static double estimate(long previousCount, long currentCount, long currentTime, long windowSizeMillis) {
+        double previousWeight = 1.0 - (double) Math.floorMod(currentTime, windowSizeMillis) / windowSizeMillis;
+        return previousCount * previousWeight + currentCount;
+    }
+
+    static void roll(WindowCounter counter, long windowIndex) {
+        if (windowIndex == counter.windowIndex) {
+            return;
+        }
+        if (windowIndex == counter.windowIndex + 1) {
+            counter.previousCount = counter.currentCount;
+        } else if (windowIndex > counter.windowIndex) {
+            // Skipped at least one whole window: nothing overlaps any more
+            counter.previousCount = 0;
+        } else {
+            // Clock went backwards; keep counting in the window we already have
+            return;
+        }
+        counter.currentCount = 0;
+        counter.windowIndex = windowIndex;
+    }
+
+    private WindowCounter track(String userId, WindowCounter counter) {
+        expiryWheel.schedule(2 * windowSizeMillis, () -> expire(userId, counter));
+        return counter;
+    }
+
+    // Two windows after the last counted one both counters roll to zero, same as for an unknown user
+    private long expire(String userId, WindowCounter counter) {
+        synchronized (counter) {
+            long remaining = (counter.windowIndex + 2) * windowSizeMillis - timeSource.millis();
+            if (remaining > 0) {
+                return remaining;
+            }
+            counter.evicted = true;
+            userCounters.remove(userId, counter);
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package org.example.ratelimiter;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * The entries of a snapshot file, indexed by key hash and read straight from the mapping.
+ * <p>
+ * Building the index is one pass that hashes each key's UTF-8 bytes where they lie;
+ * no String, state object or map entry is created. A limiter {@linkplain #take takes}
+ * a key's entry when a request first reaches the key, so a restore costs 12 bytes of
+ * index per key up front and the rest only for keys that come back.
+ * <p>
+ * The file is mapped in chunks that overlap by one maximal entry, so every entry can
+ * be read from the chunk it starts in and files past 2 GB need no special casing.
+ */
+final class SnapshotIndex {
+    static final int MAX_KEY_BYTES = 0xFFFF;
+    private static final int MAX_ENTRY_BYTES = Short.BYTES + MAX_KEY_BYTES + 2 * Long.BYTES;
+    private static final long CHUNK_BYTES = 1L << 30;
+    // Slot values are entry offsets + 1; 0 is an empty slot
+    private static final long TAKEN = -1;
+    private static final VarHandle OFFSETS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final MappedByteBuffer[] chunks;
+    private final long[] offsets;
+    private final int[] hashes;
+    private final int mask;
+    private final long timeShift;
+    private int size;
+
+    private SnapshotIndex(MappedByteBuffer[] chunks, long entries, long timeShift) {
+        int capacity = Integer.highestOneBit((int) Math.max(2, entries * 4 / 3) - 1) << 1;
+        this.chunks = chunks;
+        this.offsets = new long[capacity];
+        this.hashes = new int[capacity];
+        this.mask = capacity - 1;
+        this.timeShift = timeShift;
+    }
+
+    /**
+     * Maps and indexes {@code entries} entries stored between {@code start} and {@code end}.
+     *
+     * @param timeShift what the limiter adds to stored timestamps to move them onto its clock
+     */
+    static SnapshotIndex map(FileChannel channel, long start, long end, long entries, long timeShift, Path file)
+            throws IOException {
+        if (entries < 0 || entries > (1 << 29)) {
+            throw new IOException("Snapshot of " + entries + " keys is too large to index: " + file);
+        }
+        MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((end - 1) / CHUNK_BYTES) + 1];
+        for (int i = 0; i < chunks.length; i++) {
+            long chunkStart = i * CHUNK_BYTES;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, chunkStart,
+                    Math.min(end, chunkStart + CHUNK_BYTES + MAX_ENTRY_BYTES) - chunkStart);
+        }
+
+        SnapshotIndex index = new SnapshotIndex(chunks, entries, timeShift);
+        long offset = start;
+        for (long i = 0; i < entries; i++) {
+            MappedByteBuffer chunk = index.chunk(offset);
+            int position = (int) (offset % CHUNK_BYTES);
+            if (position + Short.BYTES > chunk.limit()) {
+                throw new IOException("Snapshot is corrupt: " + file);
+            }
+            int length = Short.toUnsignedInt(chunk.getShort(position));
+            if (position + Short.BYTES + length + 2 * Long.BYTES > chunk.limit()) {
+                throw new IOException("Snapshot is corrupt: " + file);
+            }
+            index.insert(offset, hash(chunk, position + Short.BYTES, length));
+            offset += Short.BYTES + length + 2 * Long.BYTES;
+        }
+        if (offset != end) {
+            throw new IOException("Snapshot is corrupt: " + file);
+        }
+        return index;
+    }
+
+    long timeShift() {
+        return timeShift;
+    }
+
+    // Distinct keys; a key written twice counts once
+    int size() {
+        return size;
+    }
+
+    /**
+     * Hands the key's stored entry to {@code sink} and removes it from the index, so that
+     * a key created again after expiring starts fresh.
+     *
+     * @return false if the snapshot holds no entry for the key
+     */
+    boolean take(String key, SnapshotSupport.EntrySink sink) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_KEY_BYTES) {
+            return false;
+        }
+        int hash = hash(bytes);
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            long value = (long) OFFSETS.getOpaque(offsets, slot);
+            if (value == 0) {
+                return false;
+            }
+            if (value != TAKEN && hashes[slot] == hash && keyEquals(value - 1, bytes)) {
+                if (!OFFSETS.compareAndSet(offsets, slot, value, TAKEN)) {
+                    return false;
+                }
+                accept(value - 1, key, sink);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Hands every entry no request has taken yet to {@code sink}.
+     */
+    void forEachRemaining(SnapshotSupport.EntrySink sink) {
+        for (int slot = 0; slot < offsets.length; slot++) {
+            long value = (long) OFFSETS.getOpaque(offsets, slot);
+            if (value > 0) {
+                accept(value - 1, null, sink);
+            }
+        }
+    }
+
+    // A key saved twice (once from this index, once live) keeps the later, live entry
+    private void insert(long offset, int hash) {
+        int slot = hash & mask;
+        while (offsets[slot] != 0) {
+            if (hashes[slot] == hash && keyEquals(offsets[slot] - 1, offset)) {
+                offsets[slot] = offset + 1;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        offsets[slot] = offset + 1;
+        hashes[slot] = hash;
+        size++;
+    }
+
+    private void accept(long offset, String key, SnapshotSupport.EntrySink sink) {
+        MappedByteBuffer chunk = chunk(offset);
+        int position = (int) (offset % CHUNK_BYTES);
+        int length = Short.toUnsignedInt(chunk.getShort(position));
+        if (key == null) {
+            byte[] bytes = new byte[length];
+            chunk.get(position + Short.BYTES, bytes);
+            key = new String(bytes, StandardCharsets.UTF_8);
+        }
+        int state = position + Short.BYTES + length;
+        sink.accept(key, chunk.getLong(state), chunk.getLong(state + Long.BYTES));
+    }
+
+    private boolean keyEquals(long offset, byte[] key) {
+        MappedByteBuffer chunk = chunk(offset);
+        int position = (int) (offset % CHUNK_BYTES);
+        if (Short.toUnsignedInt(chunk.getShort(position)) != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (chunk.get(position + Short.BYTES + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean keyEquals(long offset, long otherOffset) {
+        MappedByteBuffer chunk = chunk(otherOffset);
+        int position = (int) (otherOffset % CHUNK_BYTES);
+        byte[] key = new byte[Short.toUnsignedInt(chunk.getShort(position))];
+        chunk.get(position + Short.BYTES, key);
+        return keyEquals(offset, key);
+    }
+
+    private MappedByteBuffer chunk(long offset) {
+        return chunks[(int) (offset / CHUNK_BYTES)];
+    }
+
+    private static int hash(MappedByteBuffer chunk, int from, int length) {
+        int h = 1;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + chunk.get(from + i);
+        }
+        return spread(h);
+    }
+
+    private static int hash(byte[] bytes) {
+        return spread(Arrays.hashCode(bytes));
+    }
+
+    private static int spread(int h) {
+        return (h ^ (h >>> 16)) * 0x9E3779B9;
+    }
+}
@@ -0,0 +1,58 @@
+package org.example.ratelimiter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves a limiter's state with {@link StateSnapshots} every {@code periodMillis} on a
+ * daemon thread, and once more on {@link #close()} so that a graceful shutdown loses
+ * nothing. A failed save is reported on stderr and retried at the next period.
+ */
+public final class SnapshotScheduler implements AutoCloseable {
+    private final RateLimiter limiter;
+    private final Path file;
+    private final ScheduledExecutorService executor;
+
+    public SnapshotScheduler(RateLimiter limiter, Path file, long periodMillis) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("Period must be greater than zero.");
+        }
+        if (!(limiter instanceof SnapshotSupport)) {
+            throw new IllegalArgumentException("Snapshots are not supported for " + limiter.getClass().getSimpleName());
+        }
+        this.limiter = limiter;
+        this.file = file;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ratelimiter-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Fixed delay: a slow save pushes the next one back instead of queueing saves up
+        executor.scheduleWithFixedDelay(this::saveQuietly, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic saves and writes a final snapshot.
+     */
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        StateSnapshots.save(limiter, file);
+    }
+
+    private void saveQuietly() {
+        try {
+            StateSnapshots.save(limiter, file);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("SnapshotScheduler: saving " + file + " failed: " + e);
+        }
+    }
+}
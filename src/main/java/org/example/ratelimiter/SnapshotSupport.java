@@ -0,0 +1,37 @@
+package org.example.ratelimiter;
+
+/**
+ * Hooks through which {@link StateSnapshots} reads and rebuilds a limiter's per-key state.
+ * <p>
+ * Every entry is a key and two longs whose meaning is up to the limiter. Timestamps in
+ * them are readings of the limiter's {@link TimeSource}; on restore the limiter adds
+ * {@link SnapshotIndex#timeShift()} to move them onto the new process's clock.
+ */
+interface SnapshotSupport {
+
+    interface EntrySink {
+        void accept(String key, long first, long second);
+    }
+
+    /**
+     * Tags the file so that a snapshot is never restored into a different limiter type.
+     */
+    int snapshotKind();
+
+    TimeSource timeSource();
+
+    /**
+     * Hands every live key to {@code sink}, each read consistently under its own lock.
+     * Keys of a snapshot still being served that no request has reached yet come first,
+     * so a key restored meanwhile is written again after them with its live state.
+     */
+    void forEachSnapshotEntry(EntrySink sink);
+
+    /**
+     * Serves keys from {@code snapshot} as requests first reach them, until every stored
+     * state would have run out. Keys that already have state keep it.
+     *
+     * @throws IllegalStateException if an earlier snapshot is still being served
+     */
+    void restoreFrom(SnapshotIndex snapshot);
+}
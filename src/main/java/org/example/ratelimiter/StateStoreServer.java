@@ -0,0 +1,97 @@
+package org.example.ratelimiter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Local TCP stand-in for a shared counter service such as Redis, serving a
+ * {@link RateLimitStateStore} to {@link RemoteStateStore} clients.
+ * <p>
+ * Wire format, big-endian, one request then one response per round trip:
+ * <pre>
+ *   request:  key (modified UTF-8, as DataOutput.writeUTF), windowIndex, requested, limit, ttlMillis (longs)
+ *   response: granted (long)
+ * </pre>
+ * Every connection gets its own virtual thread. Run standalone with
+ * {@code java org.example.ratelimiter.StateStoreServer [port]}.
+ */
+public final class StateStoreServer implements AutoCloseable {
+    private final RateLimitStateStore store;
+    private final ServerSocket serverSocket;
+    private final Thread acceptor;
+
+    /**
+     * Binds to {@code port} on the loopback interface (0 picks a free port) and starts accepting.
+     */
+    public StateStoreServer(int port, RateLimitStateStore store) throws IOException {
+        this.store = store;
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.acceptor = new Thread(this::acceptLoop, "ratelimiter-store-acceptor");
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+    }
+
+    public int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread.ofVirtual().name("ratelimiter-store-conn").start(() -> serve(socket));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    System.err.println("StateStoreServer: accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            while (true) {
+                String key;
+                try {
+                    key = in.readUTF();
+                } catch (EOFException e) {
+                    return; // client hung up between requests
+                }
+                long windowIndex = in.readLong();
+                long requested = in.readLong();
+                long limit = in.readLong();
+                long ttlMillis = in.readLong();
+
+                out.writeLong(store.acquire(key, windowIndex, requested, limit, ttlMillis));
+                out.flush();
+            }
+        } catch (IOException | UncheckedIOException e) {
+            // Connection broken mid-request; the client sees the failure and reconnects
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7070;
+        try (StateStoreServer server = new StateStoreServer(port, new InMemoryStateStore())) {
+            System.out.println("Rate limit state store listening on 127.0.0.1:" + server.port());
+            server.acceptor.join();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package org.example.ratelimiter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clock read by the limiters on every decision.
+ * <p>
+ * Only differences between two readings of the same source are meaningful unless the
+ * implementation says otherwise, which is all the limiters need. Pick one of:
+ * <ul>
+ *   <li>{@link #monotonic()} - the default; backed by {@link System#nanoTime()}, so NTP
+ *       steps cannot open or close windows</li>
+ *   <li>{@link CachedTimeSource} - a coarse clock refreshed by one ticker thread, read as
+ *       a single volatile load on the hot path</li>
+ *   <li>{@link ManualTimeSource} - moved explicitly, for deterministic tests</li>
+ *   <li>{@link #system()} - wall-clock time, when readings must line up with the Unix epoch</li>
+ * </ul>
+ */
+@FunctionalInterface
+public interface TimeSource {
+
+    /**
+     * @return the current time in milliseconds on this source's timeline
+     */
+    long millis();
+
+    /**
+     * The same timeline in nanoseconds, for limiters that space requests less than a
+     * millisecond apart. Sources without a finer clock return {@link #millis()} scaled up.
+     */
+    default long nanos() {
+        return TimeUnit.MILLISECONDS.toNanos(millis());
+    }
+
+    /**
+     * Monotonic milliseconds since this JVM first asked for the clock.
+     */
+    static TimeSource monotonic() {
+        return MonotonicTimeSource.INSTANCE;
+    }
+
+    /**
+     * Wall-clock milliseconds since the Unix epoch; can jump when the system clock is stepped.
+     */
+    static TimeSource system() {
+        return System::currentTimeMillis;
+    }
+}
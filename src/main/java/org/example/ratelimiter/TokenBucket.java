@@ -3,31 +3,234 @@ package org.example.ratelimiter;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
-public class TokenBucket implements RateLimiter {
+public class TokenBucket implements ReservingRateLimiter, RefundableRateLimiter, WeightedRateLimiter, RetryAfterRateLimiter,
+        SnapshotSupport {
+    static final int SNAPSHOT_KIND = 2;
+
     private final int capacity;
     private final double refillRate;
     private Map<String, UserBucket> userBuckets = new ConcurrentHashMap<>();
+    private final ExpiryWheel expiryWheel = ExpiryWheel.shared();
+    private final TimeSource timeSource;
+    private volatile SnapshotIndex snapshot;
 
     public TokenBucket(int capacity, double refillRate) {
+        this(capacity, refillRate, TimeSource.monotonic());
+    }
+
+    public TokenBucket(int capacity, double refillRate, TimeSource timeSource) {
         this.capacity = capacity;
         this.refillRate = refillRate;
+        this.timeSource = timeSource;
     }
 
 
     @Override
     public boolean allowRequest(String userId) {
-        long currentTime = System.currentTimeMillis();
+        long currentTime = timeSource.millis();
 
-        UserBucket userBucket = userBuckets.computeIfAbsent(userId, k -> new UserBucket(capacity, currentTime));
+        while (true) {
+            UserBucket userBucket = lookup(userId, currentTime);
 
-        synchronized (userBucket) {
-            refill(userBucket, currentTime);
+            synchronized (userBucket) {
+                if (userBucket.evicted) {
+                    // Reaped between lookup and lock; pick up the fresh bucket
+                    continue;
+                }
+                return tryAcquire(userBucket, currentTime, 1);
+            }
+        }
+    }
+
+    @Override
+    public boolean allowRequest(String userId, int permits) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("Permits must be at least 1: " + permits);
+        }
+        long currentTime = timeSource.millis();
 
-            if(userBucket.currentTokens >= 1.0){
+        while (true) {
+            UserBucket userBucket = lookup(userId, currentTime);
+
+            synchronized (userBucket) {
+                if (userBucket.evicted) {
+                    continue;
+                }
+                return tryAcquire(userBucket, currentTime, permits);
+            }
+        }
+    }
+
+    @Override
+    public void allowRequests(String[] userIds, boolean[] out) {
+        long currentTime = timeSource.millis();
+        KeyBatch batch = KeyBatch.group(userIds, out);
+
+        for (int i = 0; i < userIds.length; i++) {
+            if (batch.isDuplicate(i)) {
+                continue;
+            }
+            while (true) {
+                UserBucket userBucket = lookup(userIds[i], currentTime);
+
+                synchronized (userBucket) {
+                    if (userBucket.evicted) {
+                        continue;
+                    }
+                    for (int j = i; j >= 0; j = batch.next(j)) {
+                        out[j] = tryAcquire(userBucket, currentTime, 1);
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public long reserve(String userId, long maxWaitMillis) {
+        long currentTime = timeSource.millis();
+
+        while (true) {
+            UserBucket userBucket = lookup(userId, currentTime);
+
+            synchronized (userBucket) {
+                if (userBucket.evicted) {
+                    continue;
+                }
+                refill(userBucket, currentTime);
+
+                // Earlier reservations may have left the bucket in debt (negative tokens)
+                double missing = 1.0 - userBucket.currentTokens;
+                long waitMillis = missing <= 0 ? 0 : (long) Math.ceil(missing * 1000.0 / refillRate);
+                if (waitMillis > maxWaitMillis) {
+                    return -1;
+                }
                 userBucket.currentTokens -= 1.0;
-                return true;
+                return waitMillis;
+            }
+        }
+    }
+
+    @Override
+    public void refund(String userId, long grant) {
+        UserBucket userBucket = userBuckets.get(userId);
+        if (userBucket == null) {
+            return; // reaped: the fresh bucket is full anyway
+        }
+        synchronized (userBucket) {
+            if (!userBucket.evicted) {
+                refill(userBucket, timeSource.millis());
+                userBucket.currentTokens = Math.min(capacity, userBucket.currentTokens + 1.0);
+            }
+        }
+    }
+
+    @Override
+    public long retryAfterMillis(String userId) {
+        UserBucket userBucket = userBuckets.get(userId);
+        if (userBucket == null) {
+            return 0;
+        }
+        synchronized (userBucket) {
+            if (userBucket.evicted) {
+                return 0;
+            }
+            refill(userBucket, timeSource.millis());
+            double tokens = userBucket.currentTokens;
+            if (tokens >= 1) {
+                return 0;
+            }
+            // Settle on the first millisecond at which refill()'s own arithmetic reaches a whole token
+            double perMilli = refillRate / 1000.0;
+            long wait = Math.max(1, (long) Math.ceil((1 - tokens) / perMilli));
+            while (wait > 1 && tokens + (wait - 1) * perMilli >= 1) {
+                wait--;
+            }
+            while (tokens + wait * perMilli < 1) {
+                wait++;
             }
+            return wait;
+        }
+    }
+
+    @Override
+    public int snapshotKind() {
+        return SNAPSHOT_KIND;
+    }
 
+    @Override
+    public TimeSource timeSource() {
+        return timeSource;
+    }
+
+    // Entry: token count (raw double bits), last refill time
+    @Override
+    public void forEachSnapshotEntry(EntrySink sink) {
+        SnapshotIndex restoring = snapshot;
+        if (restoring != null) {
+            restoring.forEachRemaining((userId, tokenBits, lastFill) ->
+                    sink.accept(userId, tokenBits, lastFill + restoring.timeShift()));
+        }
+        userBuckets.forEach((userId, userBucket) -> {
+            double tokens;
+            long lastFill;
+            synchronized (userBucket) {
+                if (userBucket.evicted) {
+                    return;
+                }
+                tokens = userBucket.currentTokens;
+                lastFill = userBucket.lastFillTimestamps;
+            }
+            sink.accept(userId, Double.doubleToRawLongBits(tokens), lastFill);
+        });
+    }
+
+    // An empty bucket is full again after this long, so by then every stored one is a new user's
+    @Override
+    public synchronized void restoreFrom(SnapshotIndex restoring) {
+        if (snapshot != null) {
+            throw new IllegalStateException("A snapshot is still being restored.");
+        }
+        snapshot = restoring;
+        expiryWheel.schedule(millisUntilFull(0), () -> {
+            synchronized (this) {
+                if (snapshot == restoring) {
+                    snapshot = null;
+                }
+            }
+            return 0;
+        });
+    }
+
+    private UserBucket lookup(String userId, long currentTime) {
+        UserBucket userBucket = userBuckets.get(userId);
+        if (userBucket == null) {
+            // Only new users pay for the capturing lambda
+            userBucket = userBuckets.computeIfAbsent(userId, k -> track(k, newBucket(k, currentTime)));
+        }
+        return userBucket;
+    }
+
+    // A user's first request picks up the bucket a snapshot being restored holds for it
+    private UserBucket newBucket(String userId, long currentTime) {
+        UserBucket userBucket = new UserBucket(capacity, currentTime);
+        SnapshotIndex restoring = snapshot;
+        if (restoring != null) {
+            restoring.take(userId, (key, tokenBits, lastFill) -> {
+                userBucket.currentTokens = Math.min(capacity, Double.longBitsToDouble(tokenBits));
+                userBucket.lastFillTimestamps = lastFill + restoring.timeShift();
+            });
+        }
+        return userBucket;
+    }
+
+    // Caller holds the bucket's lock
+    private boolean tryAcquire(UserBucket userBucket, long currentTime, int permits) {
+        refill(userBucket, currentTime);
+
+        if(userBucket.currentTokens >= permits){
+            userBucket.currentTokens -= permits;
+            return true;
         }
 
         return false;
@@ -45,4 +248,26 @@ public class TokenBucket implements RateLimiter {
 
 
     }
+
+    private UserBucket track(String userId, UserBucket userBucket) {
+        expiryWheel.schedule(millisUntilFull(0), () -> expire(userId, userBucket));
+        return userBucket;
+    }
+
+    // A full bucket behaves exactly like the one a new user gets
+    private long expire(String userId, UserBucket userBucket) {
+        synchronized (userBucket) {
+            refill(userBucket, timeSource.millis());
+            if (userBucket.currentTokens < capacity) {
+                return millisUntilFull(userBucket.currentTokens);
+            }
+            userBucket.evicted = true;
+            userBuckets.remove(userId, userBucket);
+            return 0;
+        }
+    }
+
+    private long millisUntilFull(double currentTokens) {
+        return Math.max(1, (long) Math.ceil((capacity - currentTokens) * 1000.0 / refillRate));
+    }
 }
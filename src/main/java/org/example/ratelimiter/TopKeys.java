@@ -0,0 +1,120 @@
+package org.example.ratelimiter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded "most frequent keys" tracker using the Space-Saving algorithm.
+ * <p>
+ * At most {@code capacity} keys are tracked. A new key replaces the least counted one
+ * and inherits its count, so counts are over-estimates by at most the evicted count, but
+ * any key whose true share exceeds {@code 1 / capacity} is guaranteed to be present.
+ * <p>
+ * The counters are striped by thread, each stripe its own Space-Saving table behind its
+ * own lock, so threads recording at the same time do not share a cache line. A key
+ * above the {@code 1 / capacity} share overall is above it in at least one stripe, so
+ * {@link #snapshot()} still finds it when it sums the stripes. Updates are lossy under
+ * contention: a thread that cannot take its stripe's lock immediately skips the update
+ * instead of queueing behind it.
+ */
+final class TopKeys {
+
+    private static final class Counter {
+        String key;
+        long count;
+
+        Counter(String key, long count) {
+            this.key = key;
+            this.count = count;
+        }
+    }
+
+    private static final class Stripe {
+        final Map<String, Counter> counters;
+        final ReentrantLock lock = new ReentrantLock();
+
+        Stripe(int capacity) {
+            this.counters = new HashMap<>(capacity * 2);
+        }
+    }
+
+    private final int capacity;
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    TopKeys(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be greater than zero.");
+        }
+        this.capacity = capacity;
+        int stripeCount = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1;
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(capacity);
+        }
+        this.stripeMask = stripeCount - 1;
+    }
+
+    /**
+     * Counts {@code weight} occurrences of the key, e.g. the sampling interval when only
+     * one occurrence in {@code weight} is recorded.
+     */
+    void record(String key, long weight) {
+        Stripe stripe = stripes[spread(Long.hashCode(Thread.currentThread().threadId())) & stripeMask];
+        if (!stripe.lock.tryLock()) {
+            return;
+        }
+        try {
+            Map<String, Counter> counters = stripe.counters;
+            Counter counter = counters.get(key);
+            if (counter != null) {
+                counter.count += weight;
+            } else if (counters.size() < capacity) {
+                counters.put(key, new Counter(key, weight));
+            } else {
+                Counter smallest = null;
+                for (Counter candidate : counters.values()) {
+                    if (smallest == null || candidate.count < smallest.count) {
+                        smallest = candidate;
+                    }
+                }
+                counters.remove(smallest.key);
+                smallest.key = key;
+                smallest.count += weight;
+                counters.put(key, smallest);
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * @return up to {@code capacity} keys, most counted first, with counts summed over the stripes
+     */
+    List<MetricsSnapshot.KeyCount> snapshot() {
+        Map<String, Long> merged = new HashMap<>();
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                for (Counter counter : stripe.counters.values()) {
+                    merged.merge(counter.key, counter.count, Long::sum);
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        List<MetricsSnapshot.KeyCount> result = new ArrayList<>(merged.size());
+        for (Map.Entry<String, Long> entry : merged.entrySet()) {
+            result.add(new MetricsSnapshot.KeyCount(entry.getKey(), entry.getValue()));
+        }
+        result.sort((a, b) -> Long.compare(b.count(), a.count()));
+        return result.size() > capacity ? new ArrayList<>(result.subList(0, capacity)) : result;
+    }
+
+    private static int spread(int h) {
+        return (h ^ (h >>> 16)) * 0x9E3779B9;
+    }
+}
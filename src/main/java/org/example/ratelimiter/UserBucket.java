@@ -3,6 +3,7 @@ package org.example.ratelimiter;
 public class UserBucket {
     double currentTokens;
     long lastFillTimestamps;
+    boolean evicted; // set under the bucket's lock once the expiry wheel has removed it
 
     public UserBucket(int intialCapacity, long currentTime) {
         this.currentTokens = intialCapacity;
@@ -5,6 +5,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class UserWindow {
     final AtomicInteger count = new AtomicInteger(0);
     long windowStart;
+    boolean evicted; // set under the window's lock once the expiry wheel has removed it
 
     public UserWindow(long windowStart) {
         this.windowStart = windowStart;
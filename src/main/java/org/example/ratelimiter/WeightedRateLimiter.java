@@ -0,0 +1,19 @@
+package org.example.ratelimiter;
+
+/**
+ * Rate limiter whose requests may cost more than one permit.
+ */
+public interface WeightedRateLimiter extends RateLimiter {
+
+    /**
+     * Takes {@code permits} permits for {@code userId} if all of them are available, in a
+     * single update of the key's state; otherwise takes none. A request costing more than
+     * the limiter's capacity is always denied.
+     * <p>
+     * {@code allowRequest(userId)} is the same as {@code allowRequest(userId, 1)}. A
+     * {@link RefundableRateLimiter#refund} gives back one permit, not the whole request.
+     *
+     * @throws IllegalArgumentException if {@code permits} is less than 1
+     */
+    boolean allowRequest(String userId, int permits);
+}
@@ -0,0 +1,16 @@
+package org.example.ratelimiter;
+
+/**
+ * Per-user state of {@link SlidingWindowCounter}: the counts of the current and the
+ * previous fixed window, and which window is current.
+ */
+public class WindowCounter {
+    long windowIndex;
+    long currentCount;
+    long previousCount;
+    boolean evicted; // set under the counter's lock once the expiry wheel has removed it
+
+    public WindowCounter(long windowIndex) {
+        this.windowIndex = windowIndex;
+    }
+}